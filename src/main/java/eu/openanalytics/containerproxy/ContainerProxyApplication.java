@@ -193,6 +193,12 @@ public class ContainerProxyApplication {
 		// enable Kubernetes porobes
 		properties.put("management.endpoint.health.probes.enabled", true);
 
+		// Metrics configuration
+		// ====================
+
+		// expose the metrics and prometheus endpoints (access is controlled by proxy.metrics-access, see WebSecurityConfig)
+		properties.put("management.endpoints.web.exposure.include", "health,info,metrics,prometheus");
+
 		// ====================
 
 		app.setDefaultProperties(properties);
@@ -53,7 +53,7 @@ public class ProxyController extends BaseController {
 	
 	@RequestMapping(value="/api/proxyspec/{proxySpecId}", method=RequestMethod.GET, produces=MediaType.APPLICATION_JSON_VALUE)
 	public ResponseEntity<ProxySpec> getProxySpec(@PathVariable String proxySpecId) {
-		ProxySpec spec = proxyService.findProxySpec(s -> s.getId().equals(proxySpecId), false);
+		ProxySpec spec = proxyService.getProxySpec(proxySpecId, false);
 		if (spec == null) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 		return new ResponseEntity<>(spec, HttpStatus.OK);
 	}
@@ -72,7 +72,7 @@ public class ProxyController extends BaseController {
 	
 	@RequestMapping(value="/api/proxy/{proxySpecId}", method=RequestMethod.POST, produces=MediaType.APPLICATION_JSON_VALUE)
 	public ResponseEntity<Proxy> startProxy(@PathVariable String proxySpecId, @RequestBody(required=false) Set<RuntimeSetting> runtimeSettings) {
-		ProxySpec baseSpec = proxyService.findProxySpec(s -> s.getId().equals(proxySpecId), false);
+		ProxySpec baseSpec = proxyService.getProxySpec(proxySpecId, false);
 		if (baseSpec == null) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 		
 		ProxySpec spec = proxyService.resolveProxySpec(baseSpec, null, runtimeSettings);
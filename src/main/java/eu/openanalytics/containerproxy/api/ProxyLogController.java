@@ -0,0 +1,171 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.service.LogService;
+import eu.openanalytics.containerproxy.service.LogService.LogFollower;
+import eu.openanalytics.containerproxy.service.ProxyService;
+
+/**
+ * Serves the container logs of a proxy.
+ * <p>
+ * By default, the whole log is returned. A part of the log can be requested either with the <i>tail</i>
+ * parameter (the last N lines) or with a standard HTTP <i>Range</i> header (a byte range).
+ * With <i>follow=true</i>, the response stays open and new output is streamed until the proxy stops.
+ * Following does not support byte ranges, and returns 503 if too many clients are already following a log.
+ * </p>
+ * <p>
+ * Note that on S3, only the current object of a log is read: output that was rolled over into a previous object
+ * is not included, and output that is still in an unfinished multipart upload (i.e. of an object larger than
+ * one part) only becomes visible once that object is completed.
+ * </p>
+ */
+@RestController
+public class ProxyLogController extends BaseController {
+
+	@Inject
+	private ProxyService proxyService;
+	
+	@Inject
+	private LogService logService;
+	
+	@RequestMapping(value="/api/proxy/{proxyId}/logs", method=RequestMethod.GET, produces=MediaType.TEXT_PLAIN_VALUE)
+	public ResponseEntity<StreamingResponseBody> getProxyLogs(@PathVariable String proxyId,
+			@RequestParam(defaultValue="stdout") String stream,
+			@RequestParam(defaultValue="0") int container,
+			@RequestParam(required=false) Integer tail,
+			@RequestHeader(value=HttpHeaders.RANGE, required=false) String range) throws IOException {
+		
+		Proxy proxy = proxyService.findProxy(p -> p.getId().equals(proxyId), false);
+		if (proxy == null || !logService.isLoggingEnabled()) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		
+		if (container < 0 || container >= proxy.getContainers().size()) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		int streamIndex = getStreamIndex(stream, container);
+		if (streamIndex < 0) return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		
+		long size = logService.getLogSize(proxy, streamIndex);
+		long start = 0;
+		long end = size;
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+		
+		if (range != null) {
+			List<HttpRange> ranges;
+			try {
+				ranges = HttpRange.parseRanges(range);
+			} catch (IllegalArgumentException e) {
+				ranges = null;
+			}
+			if (ranges == null || ranges.size() != 1 || size == 0) {
+				headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+				return new ResponseEntity<>(headers, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+			}
+			try {
+				start = ranges.get(0).getRangeStart(size);
+				end = ranges.get(0).getRangeEnd(size) + 1;
+			} catch (IllegalArgumentException e) {
+				headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+				return new ResponseEntity<>(headers, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+			}
+			headers.set(HttpHeaders.CONTENT_RANGE, String.format("bytes %d-%d/%d", start, end - 1, size));
+			headers.setContentLength(end - start);
+			long offset = start;
+			long length = end - start;
+			StreamingResponseBody body = out -> logService.writeLog(proxy, streamIndex, offset, length, out);
+			return new ResponseEntity<>(body, headers, HttpStatus.PARTIAL_CONTENT);
+		}
+		
+		if (tail != null) start = logService.findTailOffset(proxy, streamIndex, tail);
+		long offset = start;
+		long length = end - start;
+		headers.setContentLength(length);
+		
+		StreamingResponseBody body = out -> logService.writeLog(proxy, streamIndex, offset, length, out);
+		return new ResponseEntity<>(body, headers, HttpStatus.OK);
+	}
+	
+	@RequestMapping(value="/api/proxy/{proxyId}/logs", method=RequestMethod.GET, produces=MediaType.TEXT_PLAIN_VALUE, params="follow=true")
+	public ResponseEntity<ResponseBodyEmitter> followProxyLogs(@PathVariable String proxyId,
+			@RequestParam(defaultValue="stdout") String stream,
+			@RequestParam(defaultValue="0") int container,
+			@RequestParam(required=false) Integer tail) throws IOException {
+		
+		Proxy proxy = proxyService.findProxy(p -> p.getId().equals(proxyId), false);
+		if (proxy == null || !logService.isLoggingEnabled()) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		
+		if (container < 0 || container >= proxy.getContainers().size()) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		int streamIndex = getStreamIndex(stream, container);
+		if (streamIndex < 0) return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		
+		long start = (tail == null) ? 0 : logService.findTailOffset(proxy, streamIndex, tail);
+		
+		// The log is read by the log service's follower threads, which send each chunk through the emitter.
+		ResponseBodyEmitter emitter = new ResponseBodyEmitter();
+		OutputStream out = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				emitter.send(Arrays.copyOfRange(b, off, off + len), MediaType.TEXT_PLAIN);
+			}
+		};
+		LogFollower follower = logService.followLog(proxy, streamIndex, start, out, () -> proxyService.getProxy(proxyId) != null, error -> {
+			if (error == null) emitter.complete();
+			else emitter.completeWithError(error);
+		});
+		if (follower == null) return new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+		
+		emitter.onCompletion(follower::cancel);
+		emitter.onTimeout(follower::cancel);
+		emitter.onError(e -> follower.cancel());
+		return new ResponseEntity<>(emitter, HttpStatus.OK);
+	}
+	
+	private static int getStreamIndex(String stream, int container) {
+		if (stream.equals("stdout")) return 2 * container;
+		if (stream.equals("stderr")) return 2 * container + 1;
+		return -1;
+	}
+}
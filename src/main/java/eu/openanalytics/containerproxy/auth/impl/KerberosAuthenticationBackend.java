@@ -109,6 +109,8 @@ public class KerberosAuthenticationBackend implements IAuthenticationBackend {
 		String[] backendPrincipals = backendPrincipalList.stream().toArray(i -> new String[i]);
 		
 		long ticketRenewInterval = environment.getProperty("proxy.kerberos.ticket-renew-interval", Long.class, new Long(8 * 3600 * 1000));
+		long ticketRenewMargin = environment.getProperty("proxy.kerberos.ticket-renew-margin", Long.class, new Long(10 * 60 * 1000));
+		int ticketRenewThreads = environment.getProperty("proxy.kerberos.ticket-renew-threads", Integer.class, 4);
 		
 		SunJaasKerberosTicketValidator ticketValidator = new SunJaasKerberosTicketValidator();
 		ticketValidator.setServicePrincipal(authSvcPrinc);
@@ -117,7 +119,7 @@ public class KerberosAuthenticationBackend implements IAuthenticationBackend {
 		ticketValidator.afterPropertiesSet();
 		
 		KRBTicketRenewalManager renewalManager = new KRBTicketRenewalManager(
-				delegSvcPrinc, delegSvcKeytab, backendPrincipals, ccacheReg, ticketRenewInterval);
+				delegSvcPrinc, delegSvcKeytab, backendPrincipals, ccacheReg, ticketRenewInterval, ticketRenewMargin, ticketRenewThreads);
 		
 		eventService.addListener(e -> {
 			if (EventType.Logout.toString().equals(e.type)) renewalManager.stop(e.user);
@@ -20,10 +20,15 @@
  */
 package eu.openanalytics.containerproxy.auth.impl;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.naming.InvalidNameException;
@@ -34,17 +39,27 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.core.env.Environment;
 import org.springframework.ldap.core.ContextSource;
+import org.springframework.ldap.core.DirContextOperations;
 import org.springframework.ldap.core.support.DefaultTlsDirContextAuthenticationStrategy;
 import org.springframework.ldap.core.support.ExternalTlsDirContextAuthenticationStrategy;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
-import org.springframework.security.config.annotation.authentication.configurers.ldap.LdapAuthenticationProviderConfigurer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configurers.ExpressionUrlAuthorizationConfigurer.AuthorizedUrl;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.authority.mapping.SimpleAuthorityMapper;
 import org.springframework.security.ldap.DefaultSpringSecurityContextSource;
+import org.springframework.security.ldap.authentication.BindAuthenticator;
+import org.springframework.security.ldap.authentication.LdapAuthenticationProvider;
+import org.springframework.security.ldap.authentication.LdapAuthenticator;
+import org.springframework.security.ldap.search.FilterBasedLdapUserSearch;
 import org.springframework.security.ldap.userdetails.DefaultLdapAuthoritiesPopulator;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import eu.openanalytics.containerproxy.auth.IAuthenticationBackend;
 
 public class LDAPAuthenticationBackend implements IAuthenticationBackend {
@@ -54,6 +69,8 @@ public class LDAPAuthenticationBackend implements IAuthenticationBackend {
 	private static final String STARTTLS_SIMPLE = "simple";
 	private static final String STARTTLS_EXTERNAL = "external";
 	
+	private static final long CACHE_MAX_SIZE = 10000;
+	
 	@Inject
 	private Environment environment;
 	
@@ -77,9 +94,16 @@ public class LDAPAuthenticationBackend implements IAuthenticationBackend {
 		LDAPProviderConfig[] configs = LDAPProviderConfig.loadAll(environment);
 		if (configs.length == 0) throw new RuntimeException("Cannot initialize LDAP backend: no LDAP configuration found");
 		
+		// Allow JNDI to pool LDAPS connections too (by default, only plain connections are pooled),
+		// and close idle pooled connections after a while. Explicit system properties take precedence.
+		if (System.getProperty("com.sun.jndi.ldap.connect.pool.protocol") == null) {
+			System.setProperty("com.sun.jndi.ldap.connect.pool.protocol", "plain ssl");
+		}
+		if (System.getProperty("com.sun.jndi.ldap.connect.pool.timeout") == null) {
+			System.setProperty("com.sun.jndi.ldap.connect.pool.timeout", "300000");
+		}
+		
 		for (LDAPProviderConfig cfg: configs) {
-			LdapAuthenticationProviderConfigurer<AuthenticationManagerBuilder> configurer = new LdapAuthenticationProviderConfigurer<>();
-			
 			String[] userDnPatterns = { cfg.userDnPattern };
 			if (userDnPatterns[0] == null || userDnPatterns[0].isEmpty()) userDnPatterns = new String[0];
 
@@ -97,23 +121,38 @@ public class LDAPAuthenticationBackend implements IAuthenticationBackend {
 				contextSource.setPooled(false);
 				contextSource.setAuthenticationStrategy(new DefaultTlsDirContextAuthenticationStrategy());
 			} else if (STARTTLS_EXTERNAL.equalsIgnoreCase(cfg.startTLS)) {
+				// Same as above: a pooled connection would be upgraded to TLS again.
+				contextSource.setPooled(false);
 				contextSource.setAuthenticationStrategy(new ExternalTlsDirContextAuthenticationStrategy());
+			} else {
+				// Pool the manager connections used for user and group searches.
+				contextSource.setPooled(true);
 			}
 			
 			contextSource.afterPropertiesSet();
 
 			// Manually instantiate authoritiesPopulator because it uses a customized class.
-			CNLdapAuthoritiesPopulator authoritiesPopulator = new CNLdapAuthoritiesPopulator(contextSource, cfg.groupSearchBase);
+			CNLdapAuthoritiesPopulator authoritiesPopulator = new CNLdapAuthoritiesPopulator(contextSource, cfg.groupSearchBase, cfg.groupCacheTTL);
 			authoritiesPopulator.setGroupRoleAttribute("cn");
 			authoritiesPopulator.setGroupSearchFilter(cfg.groupSearchFilter);
 
-			configurer
-				.userDnPatterns(userDnPatterns)
-				.userSearchBase(cfg.userSearchBase)
-				.userSearchFilter(cfg.userSearchFilter)
-				.ldapAuthoritiesPopulator(authoritiesPopulator)
-				.contextSource(contextSource)
-				.configure(auth);
+			// Manually instantiate the authenticator, so it can be wrapped in a cache.
+			BindAuthenticator bindAuthenticator = new BindAuthenticator(contextSource);
+			bindAuthenticator.setUserDnPatterns(userDnPatterns);
+			if (cfg.userSearchFilter != null) {
+				bindAuthenticator.setUserSearch(new FilterBasedLdapUserSearch(cfg.userSearchBase, cfg.userSearchFilter, contextSource));
+			}
+			bindAuthenticator.afterPropertiesSet();
+			
+			LdapAuthenticator authenticator = bindAuthenticator;
+			if (cfg.bindCacheTTL > 0) authenticator = new CachingLdapAuthenticator(bindAuthenticator, cfg.bindCacheTTL);
+			
+			SimpleAuthorityMapper authoritiesMapper = new SimpleAuthorityMapper();
+			authoritiesMapper.afterPropertiesSet();
+			
+			LdapAuthenticationProvider provider = new LdapAuthenticationProvider(authenticator, authoritiesPopulator);
+			provider.setAuthoritiesMapper(authoritiesMapper);
+			auth.authenticationProvider(provider);
 		}
 	}
 	
@@ -128,6 +167,8 @@ public class LDAPAuthenticationBackend implements IAuthenticationBackend {
 		public String groupSearchFilter;
 		public String managerDn;
 		public String managerPassword;
+		public long groupCacheTTL;
+		public long bindCacheTTL;
 		
 		public static LDAPProviderConfig[] loadAll(Environment env) {
 			LDAPProviderConfig single = load(env, -1);
@@ -159,6 +200,8 @@ public class LDAPAuthenticationBackend implements IAuthenticationBackend {
 			cfg.groupSearchFilter = env.getProperty(String.format(prop, "group-search-filter"), "(uniqueMember={0})");
 			cfg.managerDn = env.getProperty(String.format(prop, "manager-dn"));
 			cfg.managerPassword = env.getProperty(String.format(prop, "manager-password"));
+			cfg.groupCacheTTL = Long.parseLong(env.getProperty(String.format(prop, "group-cache-ttl"), "60000"));
+			cfg.bindCacheTTL = Long.parseLong(env.getProperty(String.format(prop, "bind-cache-ttl"), "30000"));
 			
 			return cfg;
 		}
@@ -168,9 +211,16 @@ public class LDAPAuthenticationBackend implements IAuthenticationBackend {
 
 		private static final Log logger = LogFactory.getLog(DefaultLdapAuthoritiesPopulator.class);
 
-		public CNLdapAuthoritiesPopulator(ContextSource contextSource, String groupSearchBase) {
+		private final Cache<String, Set<GrantedAuthority>> cache;
+		
+		public CNLdapAuthoritiesPopulator(ContextSource contextSource, String groupSearchBase, long cacheTTL) {
 			super(contextSource, groupSearchBase);
 			setSearchSubtree(true);
+			if (cacheTTL > 0) {
+				cache = CacheBuilder.newBuilder().expireAfterWrite(cacheTTL, TimeUnit.MILLISECONDS).maximumSize(CACHE_MAX_SIZE).build();
+			} else {
+				cache = null;
+			}
 		}
 
 		@Override
@@ -178,6 +228,21 @@ public class LDAPAuthenticationBackend implements IAuthenticationBackend {
 			if (getGroupSearchBase() == null) {
 				return new HashSet<GrantedAuthority>();
 			}
+			if (cache == null) {
+				return searchGroupMembershipRoles(userDn, username);
+			}
+			
+			Set<GrantedAuthority> authorities = cache.getIfPresent(userDn);
+			if (authorities == null) {
+				authorities = searchGroupMembershipRoles(userDn, username);
+				cache.put(userDn, authorities);
+			} else if (logger.isDebugEnabled()) {
+				logger.debug("Using cached roles for user '" + username + "', DN = '" + userDn + "'");
+			}
+			return new HashSet<GrantedAuthority>(authorities);
+		}
+		
+		private Set<GrantedAuthority> searchGroupMembershipRoles(String userDn, String username) {
 
 			Set<GrantedAuthority> authorities = new HashSet<GrantedAuthority>();
 
@@ -220,4 +285,73 @@ public class LDAPAuthenticationBackend implements IAuthenticationBackend {
 			return "";
 		}
 	}
+	
+	/**
+	 * Remembers successful binds for a short time, so that clients sending credentials on every request
+	 * (e.g. HTTP Basic on the REST API) do not cause a bind on every request.
+	 * Passwords are never stored: only a salted hash is kept, to verify that the same credentials are presented again.
+	 */
+	private static class CachingLdapAuthenticator implements LdapAuthenticator {
+		
+		private final LdapAuthenticator delegate;
+		private final Cache<String, CachedBind> cache;
+		private final SecureRandom random = new SecureRandom();
+		
+		public CachingLdapAuthenticator(LdapAuthenticator delegate, long cacheTTL) {
+			this.delegate = delegate;
+			this.cache = CacheBuilder.newBuilder().expireAfterWrite(cacheTTL, TimeUnit.MILLISECONDS).maximumSize(CACHE_MAX_SIZE).build();
+		}
+		
+		@Override
+		public DirContextOperations authenticate(Authentication authentication) {
+			String username = authentication.getName();
+			Object credentials = authentication.getCredentials();
+			if (username == null || !(credentials instanceof String) || ((String) credentials).isEmpty()) {
+				return delegate.authenticate(authentication);
+			}
+			String password = (String) credentials;
+			
+			CachedBind cachedBind = cache.getIfPresent(username);
+			if (cachedBind != null && MessageDigest.isEqual(cachedBind.hash, hash(cachedBind.salt, password))) {
+				return cachedBind.user;
+			}
+			
+			DirContextOperations user;
+			try {
+				user = delegate.authenticate(authentication);
+			} catch (AuthenticationException e) {
+				cache.invalidate(username);
+				throw e;
+			}
+			
+			byte[] salt = new byte[16];
+			random.nextBytes(salt);
+			cache.put(username, new CachedBind(salt, hash(salt, password), user));
+			return user;
+		}
+		
+		private static byte[] hash(byte[] salt, String password) {
+			try {
+				MessageDigest digest = MessageDigest.getInstance("SHA-256");
+				digest.update(salt);
+				digest.update(password.getBytes(StandardCharsets.UTF_8));
+				return digest.digest();
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		
+		private static class CachedBind {
+			
+			private final byte[] salt;
+			private final byte[] hash;
+			private final DirContextOperations user;
+			
+			public CachedBind(byte[] salt, byte[] hash, DirContextOperations user) {
+				this.salt = salt;
+				this.hash = hash;
+				this.user = user;
+			}
+		}
+	}
 }
@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -35,7 +36,9 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.context.ApplicationContext;
 import org.springframework.core.env.Environment;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configurers.ExpressionUrlAuthorizationConfigurer.AuthorizedUrl;
@@ -45,7 +48,6 @@ import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.authority.mapping.GrantedAuthoritiesMapper;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.oauth2.client.InMemoryOAuth2AuthorizedClientService;
 import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
 import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
 import org.springframework.security.oauth2.client.oidc.userinfo.OidcUserRequest;
@@ -64,6 +66,8 @@ import org.springframework.security.oauth2.core.oidc.user.OidcUserAuthority;
 import org.springframework.security.web.authentication.AuthenticationFailureHandler;
 
 import eu.openanalytics.containerproxy.auth.IAuthenticationBackend;
+import eu.openanalytics.containerproxy.auth.impl.oidc.BoundedOAuth2AuthorizedClientService;
+import eu.openanalytics.containerproxy.auth.impl.oidc.RedisOAuth2AuthorizedClientService;
 import eu.openanalytics.containerproxy.security.FixedDefaultOAuth2AuthorizationRequestResolver;
 import eu.openanalytics.containerproxy.util.SessionHelper;
 import net.minidev.json.JSONArray;
@@ -85,6 +89,9 @@ public class OpenIDAuthenticationBackend implements IAuthenticationBackend {
 	@Inject
 	private Environment environment;
 	
+	@Inject
+	private ApplicationContext applicationContext;
+	
 	@Override
 	public String getName() {
 		return NAME;
@@ -98,7 +105,7 @@ public class OpenIDAuthenticationBackend implements IAuthenticationBackend {
 	@Override
 	public void configureHttpSecurity(HttpSecurity http, AuthorizedUrl anyRequestConfigurer) throws Exception {
 		ClientRegistrationRepository clientRegistrationRepo = createClientRepo();
-		authorizedClientService = new InMemoryOAuth2AuthorizedClientService(clientRegistrationRepo);
+		authorizedClientService = createAuthorizedClientService(clientRegistrationRepo);
 		
 		anyRequestConfigurer.authenticated();
 		
@@ -183,6 +190,22 @@ public class OpenIDAuthenticationBackend implements IAuthenticationBackend {
 		return new InMemoryClientRegistrationRepository(Collections.singletonList(client));
 	}
 	
+	/**
+	 * Create the store for authorized clients (i.e. the access tokens of logged in users), which is
+	 * either a bounded in-memory store, or a Redis store that is shared between all replicas.
+	 */
+	protected OAuth2AuthorizedClientService createAuthorizedClientService(ClientRegistrationRepository clientRegistrationRepo) {
+		long maxTTL = Long.parseLong(environment.getProperty("proxy.openid.authorized-client-max-ttl", String.valueOf(TimeUnit.HOURS.toMillis(24))));
+		String storeType = environment.getProperty("proxy.openid.authorized-client-store", "memory");
+		if (storeType.equalsIgnoreCase("redis")) {
+			RedisConnectionFactory connectionFactory = applicationContext.getBean(RedisConnectionFactory.class);
+			return new RedisOAuth2AuthorizedClientService(clientRegistrationRepo, connectionFactory, maxTTL);
+		} else {
+			long maxSize = Long.parseLong(environment.getProperty("proxy.openid.authorized-client-max-size", "10000"));
+			return new BoundedOAuth2AuthorizedClientService(maxSize, maxTTL);
+		}
+	}
+	
 	protected GrantedAuthoritiesMapper createAuthoritiesMapper() {
 		String rolesClaimName = environment.getProperty("proxy.openid.roles-claim");
 		if (rolesClaimName == null || rolesClaimName.isEmpty()) {
@@ -20,11 +20,20 @@
  */
 package eu.openanalytics.containerproxy.auth.impl;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
 import org.springframework.core.env.Environment;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -32,6 +41,7 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.security.authentication.AuthenticationServiceException;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.rcp.RemoteAuthenticationException;
@@ -45,6 +55,8 @@ import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 
 import eu.openanalytics.containerproxy.auth.IAuthenticationBackend;
@@ -52,6 +64,11 @@ import eu.openanalytics.containerproxy.auth.IAuthenticationBackend;
 /**
  * Web service authentication method where user/password combinations are
  * checked by a HTTP call to a remote web service.
+ * <p>
+ * All calls share a pooled HTTP client. Optionally, positive verdicts can be cached for a short time
+ * (<i>proxy.webservice.cache-ttl</i>), so that clients sending credentials on every request
+ * (e.g. HTTP Basic on the REST API) do not cause a remote call on every request.
+ * </p>
  */
 public class WebServiceAuthenticationBackend implements IAuthenticationBackend {
 	
@@ -59,8 +76,17 @@ public class WebServiceAuthenticationBackend implements IAuthenticationBackend {
 
 	private static final String PROPERTY_PREFIX = "proxy.webservice.";
 	
+	private static final long CACHE_MAX_SIZE = 10000;
+	
 	@Inject
 	private Environment environment;
+	
+	private RestTemplate restTemplate;
+	private String requestBodyTemplate;
+	private String loginUrl;
+	
+	private Cache<String, Boolean> verdictCache;
+	private byte[] cacheSalt;
 
 	@Override
 	public String getName() {
@@ -79,23 +105,52 @@ public class WebServiceAuthenticationBackend implements IAuthenticationBackend {
 
 	@Override
 	public void configureAuthenticationManagerBuilder(AuthenticationManagerBuilder auth) throws Exception {
+		requestBodyTemplate = environment.getProperty(PROPERTY_PREFIX + "authentication-request-body", "");
+		loginUrl = environment.getProperty(PROPERTY_PREFIX + "authentication-url");
+		
+		int connectTimeout = Integer.parseInt(environment.getProperty(PROPERTY_PREFIX + "connect-timeout", "5000"));
+		int readTimeout = Integer.parseInt(environment.getProperty(PROPERTY_PREFIX + "read-timeout", "10000"));
+		int maxConnections = Integer.parseInt(environment.getProperty(PROPERTY_PREFIX + "max-connections", "20"));
+		CloseableHttpClient httpClient = HttpClients.custom()
+				.setMaxConnTotal(maxConnections)
+				.setMaxConnPerRoute(maxConnections)
+				.setDefaultRequestConfig(RequestConfig.custom()
+						.setConnectTimeout(connectTimeout)
+						.setConnectionRequestTimeout(connectTimeout)
+						.setSocketTimeout(readTimeout)
+						.build())
+				.evictIdleConnections(60, TimeUnit.SECONDS)
+				.build();
+		restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+		
+		long cacheTTL = Long.parseLong(environment.getProperty(PROPERTY_PREFIX + "cache-ttl", "0"));
+		if (cacheTTL > 0) {
+			verdictCache = CacheBuilder.newBuilder().expireAfterWrite(cacheTTL, TimeUnit.MILLISECONDS).maximumSize(CACHE_MAX_SIZE).build();
+			cacheSalt = new byte[16];
+			new SecureRandom().nextBytes(cacheSalt);
+		}
+		
 		RemoteAuthenticationProvider authenticationProvider = new RemoteAuthenticationProvider();
 		authenticationProvider.setRemoteAuthenticationManager(new RemoteAuthenticationManager() {
 
 			@Override
 			public Collection<? extends GrantedAuthority> attemptAuthentication(String username, String password)
 					throws RemoteAuthenticationException {
-				RestTemplate restTemplate = new RestTemplate();
-
+				String cacheKey = null;
+				if (verdictCache != null) {
+					cacheKey = getCacheKey(username, password);
+					if (verdictCache.getIfPresent(cacheKey) != null) return Lists.<GrantedAuthority>newArrayList();
+				}
+				
 				HttpHeaders headers = new HttpHeaders();
 				headers.setAccept(Arrays.asList(MediaType.APPLICATION_JSON));
 				headers.setContentType(MediaType.APPLICATION_JSON);
 
 				try {
-					String body = String.format(environment.getProperty(PROPERTY_PREFIX + "authentication-request-body", ""), username, password);
-					String loginUrl = environment.getProperty(PROPERTY_PREFIX + "authentication-url");
+					String body = String.format(requestBodyTemplate, username, password);
 					ResponseEntity<String> result = restTemplate.exchange(loginUrl, HttpMethod.POST, new HttpEntity<>(body, headers), String.class);
 					if (result.getStatusCode() == HttpStatus.OK) {
+						if (cacheKey != null) verdictCache.put(cacheKey, Boolean.TRUE);
 						return Lists.<GrantedAuthority>newArrayList();
 					}
 					throw new AuthenticationServiceException("Unknown response received " + result);					
@@ -109,5 +164,21 @@ public class WebServiceAuthenticationBackend implements IAuthenticationBackend {
 		});
 		auth.authenticationProvider(authenticationProvider);
 	}
+	
+	/**
+	 * The credentials are never kept in memory: the cache is keyed by a salted hash instead.
+	 */
+	private String getCacheKey(String username, String password) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(cacheSalt);
+			digest.update(String.valueOf(username).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(String.valueOf(password).getBytes(StandardCharsets.UTF_8));
+			return Base64.getEncoder().encodeToString(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
 
 }
@@ -21,11 +21,14 @@
 package eu.openanalytics.containerproxy.auth.impl.kerberos;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 import javax.security.auth.kerberos.KerberosTicket;
@@ -34,8 +37,19 @@ import org.apache.kerby.kerberos.kerb.type.ticket.SgtTicket;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+/**
+ * Keeps the service tickets of logged in users valid, by renewing them shortly before they expire.
+ * <p>
+ * Renewals run on a pool of worker threads. Each renewal is scheduled at the end time of the
+ * tickets it obtained, minus a margin. The margin is randomly increased by up to 50%, so that renewals
+ * of users who logged in at the same time are spread out. The renew interval acts as an upper bound.
+ * </p>
+ */
 public class KRBTicketRenewalManager {
 
+	private static final long MIN_RENEW_DELAY = 10000;
+	private static final long RETRY_DELAY = 60000;
+	
 	private Logger log = LogManager.getLogger(KRBTicketRenewalManager.class);
 	
 	private String servicePrincipal;
@@ -48,34 +62,35 @@ public class KRBTicketRenewalManager {
 	
 	private ScheduledExecutorService executor;
 	private long renewInterval;
-	private Map<String, ScheduledFuture<?>> renewalJobs;
+	private long renewMargin;
+	private Map<String, RenewalJob> renewalJobs;
 	
-	public KRBTicketRenewalManager(String servicePrincipal, String serviceKeytab, String[] backendPrincipals, KRBClientCacheRegistry ccacheReg, long renewInterval) {
+	public KRBTicketRenewalManager(String servicePrincipal, String serviceKeytab, String[] backendPrincipals, KRBClientCacheRegistry ccacheReg,
+			long renewInterval, long renewMargin, int threads) {
 		this.servicePrincipal = servicePrincipal;
 		this.serviceKeytab = serviceKeytab;
 		this.backendPrincipals = backendPrincipals;
 		
 		this.ccacheReg = ccacheReg;
 		
-		this.executor = Executors.newSingleThreadScheduledExecutor();
+		this.executor = Executors.newScheduledThreadPool(threads);
 		this.renewInterval = renewInterval;
+		this.renewMargin = renewMargin;
 		this.renewalJobs = new ConcurrentHashMap<>();
 		
-		executor.scheduleAtFixedRate(new ProxyRenewalJob(), 0, renewInterval, TimeUnit.MILLISECONDS);
+		executor.schedule(new ProxyRenewalJob(), 0, TimeUnit.MILLISECONDS);
 	}
 	
 	public synchronized void start(String principal) {
 		if (renewalJobs.containsKey(principal)) return;
-		ScheduledFuture<?> f = executor.scheduleAtFixedRate(new RenewalJob(principal), 0, renewInterval, TimeUnit.MILLISECONDS);
-		renewalJobs.put(principal, f);
+		RenewalJob job = new RenewalJob(principal);
+		renewalJobs.put(principal, job);
+		job.schedule(0);
 	}
 	
 	public synchronized void stop(String principal) {
-		ScheduledFuture<?> f = renewalJobs.get(principal);
-		if (f != null) {
-			f.cancel(true);
-			renewalJobs.remove(principal);
-		}
+		RenewalJob job = renewalJobs.remove(principal);
+		if (job != null) job.cancel();
 		try {
 			ccacheReg.remove(principal);
 		} catch (IOException e) {
@@ -83,45 +98,104 @@ public class KRBTicketRenewalManager {
 		}
 	}
 	
+	/**
+	 * Check whether the given job is still the active job of its principal.
+	 * This is not the case anymore if the principal was stopped, even if it was started again since.
+	 */
+	private synchronized boolean isActive(RenewalJob job) {
+		return renewalJobs.get(job.principal) == job;
+	}
+	
+	private synchronized void reschedule(RenewalJob job, long delay) {
+		// Do not reschedule if the principal was stopped in the meantime.
+		if (!isActive(job)) return;
+		job.schedule(delay);
+	}
+	
+	/**
+	 * Get the service TGT, renewing it first if it is missing or expired.
+	 * This ensures user renewals never run with a missing TGT, even if they are picked up by
+	 * another worker before the initial TGT renewal has completed.
+	 */
+	private synchronized KerberosTicket getServiceTGT() throws Exception {
+		KerberosTicket tgt = serviceTGT;
+		if (tgt == null || tgt.getEndTime() == null || tgt.getEndTime().getTime() <= System.currentTimeMillis()) {
+			tgt = KRBUtils.createGSSContext(servicePrincipal, serviceKeytab);
+			serviceTGT = tgt;
+		}
+		return tgt;
+	}
+	
+	/**
+	 * Calculate the delay until the next renewal of tickets that expire at the given time.
+	 */
+	private long getRenewDelay(long endTime) {
+		long jitteredMargin = renewMargin + ThreadLocalRandom.current().nextLong(renewMargin / 2 + 1);
+		long delay = endTime - jitteredMargin - System.currentTimeMillis();
+		return Math.max(MIN_RENEW_DELAY, Math.min(renewInterval, delay));
+	}
+	
 	private class RenewalJob implements Runnable {
 
 		private String principal;
+		private ScheduledFuture<?> future;
 		
 		public RenewalJob(String principal) {
 			this.principal = principal;
 		}
 		
+		private synchronized void schedule(long delay) {
+			future = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+		}
+		
+		private synchronized void cancel() {
+			if (future != null) future.cancel(true);
+		}
+		
 		@Override
 		public void run() {
 			if (backendPrincipals == null || backendPrincipals.length == 0) return;
+			if (!isActive(this)) return;
 			
+			long nextDelay = Math.min(renewInterval, RETRY_DELAY);
 			try {
 				String ccachePath = ccacheReg.get(principal);
 				if (ccachePath == null) ccachePath = ccacheReg.create(principal);
 				
-				SgtTicket proxyTicket = KRBUtils.obtainImpersonationTicket(principal, serviceTGT);
-				KRBUtils.persistTicket(proxyTicket, ccachePath);
+				KerberosTicket tgt = getServiceTGT();
+				List<SgtTicket> tickets = new ArrayList<>();
+				SgtTicket proxyTicket = KRBUtils.obtainImpersonationTicket(principal, tgt);
+				tickets.add(proxyTicket);
 					
 				for (String backendPrincipal: backendPrincipals) {
-					SgtTicket backendTicket = KRBUtils.obtainBackendServiceTicket(backendPrincipal, proxyTicket.getTicket(), serviceTGT);
-					KRBUtils.persistTicket(backendTicket, ccachePath);
+					tickets.add(KRBUtils.obtainBackendServiceTicket(backendPrincipal, proxyTicket.getTicket(), tgt));
 				}
-					
-				log.info("Renewed " + backendPrincipals.length + " service tickets for user " + principal);
+				
+				KRBUtils.persistTickets(tickets, ccachePath);
+				
+				long endTime = tickets.stream().mapToLong(t -> t.getEncKdcRepPart().getEndTime().getTime()).min().getAsLong();
+				nextDelay = getRenewDelay(endTime);
+				log.info(String.format("Renewed %d service tickets for user %s, next renewal in %d s", backendPrincipals.length, principal, nextDelay / 1000));
 			} catch (Exception e) {
 				log.error("Error while renewing service tickets for " + principal, e);
 			}
+			reschedule(this, nextDelay);
 		}
 	}
 	
 	private class ProxyRenewalJob implements Runnable {
 		@Override
 		public void run() {
+			long nextDelay = Math.min(renewInterval, RETRY_DELAY);
 			try {
-				serviceTGT = KRBUtils.createGSSContext(servicePrincipal, serviceKeytab);
+				KerberosTicket tgt = KRBUtils.createGSSContext(servicePrincipal, serviceKeytab);
+				serviceTGT = tgt;
+				if (tgt.getEndTime() != null) nextDelay = getRenewDelay(tgt.getEndTime().getTime());
+				else nextDelay = renewInterval;
 			} catch (Exception e) {
 				log.error("Error while renewing TGT for " + servicePrincipal, e);
 			}
+			executor.schedule(this, nextDelay, TimeUnit.MILLISECONDS);
 		}
 	}
 }
@@ -20,12 +20,17 @@
  */
 package eu.openanalytics.containerproxy.auth.impl.kerberos;
 
-import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.security.Principal;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.security.auth.Subject;
@@ -217,24 +222,47 @@ public class KRBUtils {
 		return sgtTicket;
 	}
 	
-	public static void persistTicket(SgtTicket ticket, String destinationCCache) throws Exception {
-		File cCacheFile = new File(destinationCCache);
-		if (cCacheFile.exists()) {
-			CredentialCache cCache = new CredentialCache();
-			cCache.load(cCacheFile);
-			
+	/**
+	 * Store a set of tickets in a ccache, replacing any older tickets for the same services.
+	 * The ccache is written to a temporary file first, and then moved into place atomically,
+	 * so that readers of the ccache never see a partially written file.
+	 * 
+	 * @param tickets The tickets to store.
+	 * @param destinationCCache The path of the ccache.
+	 * @throws Exception If the ccache cannot be written.
+	 */
+	public static void persistTickets(List<SgtTicket> tickets, String destinationCCache) throws Exception {
+		if (tickets.isEmpty()) return;
+		
+		Path cCachePath = Paths.get(destinationCCache);
+		Path tmpPath = cCachePath.resolveSibling(cCachePath.getFileName() + ".tmp");
+		Files.deleteIfExists(tmpPath);
+		
+		CredentialCache cCache = new CredentialCache();
+		if (Files.exists(cCachePath)) {
+			cCache.load(cCachePath.toFile());
+		} else {
+			// Let kerby initialize a new ccache (including its primary principal) using the first ticket.
+			krbClient.storeTicket(tickets.get(0), tmpPath.toFile());
+			cCache.load(tmpPath.toFile());
+		}
+		
+		for (SgtTicket ticket: tickets) {
 			// Fix: kerby refuses to overwrite tickets in ccache, so if an older one exists, force removal now
 			Credential newCred = new Credential(ticket, ticket.getClientPrincipal());
 			Credential existingCred = cCache.getCredentials().stream()
 					.filter(c -> c.getServerName().getName().equals(newCred.getServerName().getName()))
 					.findAny().orElse(null);
-
-			cCache.removeCredential(existingCred);
+			if (existingCred != null) cCache.removeCredential(existingCred);
 			cCache.addCredential(newCred);
-			cCache.store(cCacheFile);
-		} else {
-			krbClient.storeTicket(ticket, cCacheFile);
 		}
+		
+		cCache.store(tmpPath.toFile());
+		Files.move(tmpPath, cCachePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	public static void persistTicket(SgtTicket ticket, String destinationCCache) throws Exception {
+		persistTickets(Collections.singletonList(ticket), destinationCCache);
 	}
 
 	/**
@@ -0,0 +1,73 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.auth.impl.oidc;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * An in-memory store of authorized clients, with a maximum size.
+ * Entries expire when their access token expires, or after the maximum TTL if the token has no expiry.
+ */
+public class BoundedOAuth2AuthorizedClientService implements OAuth2AuthorizedClientService {
+
+	private final Cache<String, OAuth2AuthorizedClient> clients;
+	
+	public BoundedOAuth2AuthorizedClientService(long maxSize, long maxTTL) {
+		this.clients = CacheBuilder.newBuilder().expireAfterWrite(maxTTL, TimeUnit.MILLISECONDS).maximumSize(maxSize).build();
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T extends OAuth2AuthorizedClient> T loadAuthorizedClient(String clientRegistrationId, String principalName) {
+		String key = getKey(clientRegistrationId, principalName);
+		OAuth2AuthorizedClient client = clients.getIfPresent(key);
+		if (client == null) return null;
+		
+		Instant expiresAt = client.getAccessToken().getExpiresAt();
+		if (expiresAt != null && expiresAt.isBefore(Instant.now())) {
+			clients.invalidate(key);
+			return null;
+		}
+		return (T) client;
+	}
+
+	@Override
+	public void saveAuthorizedClient(OAuth2AuthorizedClient authorizedClient, Authentication principal) {
+		clients.put(getKey(authorizedClient.getClientRegistration().getRegistrationId(), principal.getName()), authorizedClient);
+	}
+
+	@Override
+	public void removeAuthorizedClient(String clientRegistrationId, String principalName) {
+		clients.invalidate(getKey(clientRegistrationId, principalName));
+	}
+	
+	private static String getKey(String clientRegistrationId, String principalName) {
+		return clientRegistrationId + ":" + principalName;
+	}
+}
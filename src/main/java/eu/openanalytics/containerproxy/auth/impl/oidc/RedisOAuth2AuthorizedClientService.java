@@ -0,0 +1,156 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.auth.impl.oidc;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClientService;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+
+/**
+ * A store of authorized clients in Redis, so that all replicas share the same clients.
+ * <p>
+ * Only the tokens are stored, as a Redis hash. The client registration is looked up locally when
+ * a client is loaded. Each entry expires in Redis when its access token expires, or after the
+ * maximum TTL if the token has no expiry. An entry is replaced in a single transaction, so that
+ * other replicas never see a half-written entry, and an entry never exists without a TTL.
+ * </p>
+ */
+public class RedisOAuth2AuthorizedClientService implements OAuth2AuthorizedClientService {
+
+	private static final String KEY_PREFIX = "shinyproxy_oidc_authorized_client:";
+	
+	private static final String FIELD_ACCESS_TOKEN = "accessToken";
+	private static final String FIELD_ACCESS_TOKEN_ISSUED_AT = "accessTokenIssuedAt";
+	private static final String FIELD_ACCESS_TOKEN_EXPIRES_AT = "accessTokenExpiresAt";
+	private static final String FIELD_ACCESS_TOKEN_SCOPES = "accessTokenScopes";
+	private static final String FIELD_REFRESH_TOKEN = "refreshToken";
+	private static final String FIELD_REFRESH_TOKEN_ISSUED_AT = "refreshTokenIssuedAt";
+	
+	private final ClientRegistrationRepository clientRegistrationRepository;
+	private final StringRedisTemplate redisTemplate;
+	private final long maxTTL;
+	
+	public RedisOAuth2AuthorizedClientService(ClientRegistrationRepository clientRegistrationRepository, RedisConnectionFactory connectionFactory, long maxTTL) {
+		this.clientRegistrationRepository = clientRegistrationRepository;
+		this.redisTemplate = new StringRedisTemplate(connectionFactory);
+		this.maxTTL = maxTTL;
+	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T extends OAuth2AuthorizedClient> T loadAuthorizedClient(String clientRegistrationId, String principalName) {
+		ClientRegistration registration = clientRegistrationRepository.findByRegistrationId(clientRegistrationId);
+		if (registration == null) return null;
+		
+		HashOperations<String, String, String> hashOps = redisTemplate.opsForHash();
+		Map<String, String> fields = hashOps.entries(getKey(clientRegistrationId, principalName));
+		if (fields == null || fields.get(FIELD_ACCESS_TOKEN) == null) return null;
+		
+		Set<String> scopes = new HashSet<>();
+		String scopeString = fields.get(FIELD_ACCESS_TOKEN_SCOPES);
+		if (scopeString != null && !scopeString.isEmpty()) scopes.addAll(Arrays.asList(scopeString.split(" ")));
+		OAuth2AccessToken accessToken = new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER,
+				fields.get(FIELD_ACCESS_TOKEN),
+				toInstant(fields.get(FIELD_ACCESS_TOKEN_ISSUED_AT)),
+				toInstant(fields.get(FIELD_ACCESS_TOKEN_EXPIRES_AT)),
+				scopes);
+		
+		OAuth2RefreshToken refreshToken = null;
+		if (fields.get(FIELD_REFRESH_TOKEN) != null) {
+			refreshToken = new OAuth2RefreshToken(fields.get(FIELD_REFRESH_TOKEN), toInstant(fields.get(FIELD_REFRESH_TOKEN_ISSUED_AT)));
+		}
+		
+		return (T) new OAuth2AuthorizedClient(registration, principalName, accessToken, refreshToken);
+	}
+
+	@Override
+	public void saveAuthorizedClient(OAuth2AuthorizedClient authorizedClient, Authentication principal) {
+		OAuth2AccessToken accessToken = authorizedClient.getAccessToken();
+		OAuth2RefreshToken refreshToken = authorizedClient.getRefreshToken();
+		
+		Map<String, String> fields = new HashMap<>();
+		fields.put(FIELD_ACCESS_TOKEN, accessToken.getTokenValue());
+		putInstant(fields, FIELD_ACCESS_TOKEN_ISSUED_AT, accessToken.getIssuedAt());
+		putInstant(fields, FIELD_ACCESS_TOKEN_EXPIRES_AT, accessToken.getExpiresAt());
+		fields.put(FIELD_ACCESS_TOKEN_SCOPES, String.join(" ", accessToken.getScopes()));
+		if (refreshToken != null) {
+			fields.put(FIELD_REFRESH_TOKEN, refreshToken.getTokenValue());
+			putInstant(fields, FIELD_REFRESH_TOKEN_ISSUED_AT, refreshToken.getIssuedAt());
+		}
+		
+		long ttl = maxTTL;
+		if (accessToken.getExpiresAt() != null) {
+			ttl = Math.min(ttl, accessToken.getExpiresAt().toEpochMilli() - System.currentTimeMillis());
+		}
+		if (ttl <= 0) return;
+		
+		String key = getKey(authorizedClient.getClientRegistration().getRegistrationId(), principal.getName());
+		long expiry = ttl;
+		redisTemplate.execute(new SessionCallback<List<Object>>() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public <K, V> List<Object> execute(RedisOperations<K, V> operations) throws DataAccessException {
+				RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+				ops.multi();
+				ops.delete(key);
+				ops.opsForHash().putAll(key, fields);
+				ops.expire(key, expiry, TimeUnit.MILLISECONDS);
+				return ops.exec();
+			}
+		});
+	}
+
+	@Override
+	public void removeAuthorizedClient(String clientRegistrationId, String principalName) {
+		redisTemplate.delete(getKey(clientRegistrationId, principalName));
+	}
+	
+	private static String getKey(String clientRegistrationId, String principalName) {
+		return KEY_PREFIX + clientRegistrationId + ":" + principalName;
+	}
+	
+	private static void putInstant(Map<String, String> fields, String field, Instant value) {
+		if (value != null) fields.put(field, String.valueOf(value.toEpochMilli()));
+	}
+	
+	private static Instant toInstant(String value) {
+		return (value == null) ? null : Instant.ofEpochMilli(Long.parseLong(value));
+	}
+}
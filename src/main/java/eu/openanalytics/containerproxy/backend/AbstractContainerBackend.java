@@ -22,7 +22,6 @@ package eu.openanalytics.containerproxy.backend;
 
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -32,7 +31,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
-import java.util.function.BiConsumer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -43,6 +49,8 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.core.env.Environment;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutor;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 import eu.openanalytics.containerproxy.ContainerProxyException;
 import eu.openanalytics.containerproxy.auth.IAuthenticationBackend;
@@ -50,11 +58,15 @@ import eu.openanalytics.containerproxy.backend.strategy.IProxyTargetMappingStrat
 import eu.openanalytics.containerproxy.backend.strategy.IProxyTestStrategy;
 import eu.openanalytics.containerproxy.model.runtime.Container;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.model.runtime.ProxyStartupStage;
 import eu.openanalytics.containerproxy.model.runtime.ProxyStatus;
 import eu.openanalytics.containerproxy.model.spec.ContainerSpec;
 import eu.openanalytics.containerproxy.service.UserService;
 import eu.openanalytics.containerproxy.spec.expression.ExpressionAwareContainerSpec;
 import eu.openanalytics.containerproxy.spec.expression.SpecExpressionResolver;
+import eu.openanalytics.containerproxy.util.Futures;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 
 public abstract class AbstractContainerBackend implements IContainerBackend {
 
@@ -64,6 +76,9 @@ public abstract class AbstractContainerBackend implements IContainerBackend {
 	protected static final String PROPERTY_CONTAINER_PROTOCOL = "container-protocol";
 	protected static final String PROPERTY_PRIVILEGED = "privileged";
 	
+	private static final String PROPERTY_BACKEND_THREADS = "proxy.container-backend-threads";
+	private static final String PROPERTY_START_TIMEOUT = "proxy.container-start-timeout";
+	
 	protected static final String DEFAULT_TARGET_PROTOCOL = "http";
 	
 	//TODO rename vars?
@@ -79,6 +94,7 @@ public abstract class AbstractContainerBackend implements IContainerBackend {
 	
 	private boolean useInternalNetwork;
 	private boolean privileged;
+	private ExecutorService backendExecutor;
 	
 	@Inject
 	protected IProxyTargetMappingStrategy mappingStrategy;
@@ -95,6 +111,9 @@ public abstract class AbstractContainerBackend implements IContainerBackend {
 	@Inject
 	protected SpecExpressionResolver expressionResolver;
 	
+	@Inject
+	protected MeterRegistry meterRegistry;
+	
 	@Inject
 	@Lazy
 	// Note: lazy needed to work around early initialization conflict 
@@ -107,74 +126,211 @@ public abstract class AbstractContainerBackend implements IContainerBackend {
 		privileged = Boolean.valueOf(getProperty(PROPERTY_PRIVILEGED, "false"));
 	}
 	
+	/**
+	 * Get the pool that runs the (blocking) calls to the backend's API.
+	 * Waiting for containers to become ready does not happen on this pool, so it can be small.
+	 */
+	protected synchronized Executor getBackendExecutor() {
+		if (backendExecutor == null) {
+			int threads = environment.getProperty(PROPERTY_BACKEND_THREADS, Integer.class, 16);
+			AtomicInteger count = new AtomicInteger();
+			backendExecutor = Executors.newFixedThreadPool(threads, r -> {
+				Thread t = new Thread(r, getClass().getSimpleName() + "-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return backendExecutor;
+	}
+	
+	/**
+	 * Get the backend pool, running its tasks with the security context of the calling thread.
+	 */
+	protected Executor getBackendExecutorForCaller() {
+		return new DelegatingSecurityContextExecutor(getBackendExecutor(), SecurityContextHolder.getContext());
+	}
+	
 	@Override
 	public void startProxy(Proxy proxy) throws ContainerProxyException {
+		long timeout = environment.getProperty(PROPERTY_START_TIMEOUT, Long.class, 600000L);
+		CompletableFuture<Proxy> future = startProxyAsync(proxy);
+		try {
+			Futures.await(future, timeout, TimeUnit.MILLISECONDS);
+		} catch (ContainerProxyException e) {
+			if (e.getCause() instanceof TimeoutException) {
+				// The caller gives up on this proxy: stop it if it still manages to start.
+				future.thenAccept(p -> Futures.call(() -> stopProxyAsync(p)));
+			}
+			throw e;
+		}
+	}
+	
+	@Override
+	public CompletableFuture<Proxy> startProxyAsync(Proxy proxy) {
 		proxy.setId(UUID.randomUUID().toString());
 		proxy.setStatus(ProxyStatus.Starting);
 		
-		try {
-			doStartProxy(proxy);
-		} catch (Throwable t) {
-			stopProxy(proxy);
-			throw new ContainerProxyException("Failed to start container", t);
-		}
-
-		proxy.setStartupTimestamp(System.currentTimeMillis());
-		proxy.setStatus(ProxyStatus.Up);
+		// Run all stages with the security context of the caller, e.g. to resolve the groups of the user.
+		Executor executor = getBackendExecutorForCaller();
+		
+		CompletableFuture<Proxy> result = new CompletableFuture<>();
+		Timer.Sample sample = Timer.start(meterRegistry);
+		// Every callback catches its own errors: an exception escaping a callback would never complete the result.
+		Futures.call(() -> doStartProxyAsync(proxy, executor)).thenCompose(v -> {
+			sample.stop(getStageTimer("start"));
+			long stageStart = System.currentTimeMillis();
+			return Futures.call(() -> testStrategy.testProxyAsync(proxy)).handle((responsive, t) -> {
+				if (t != null) log.warn("Failed to test proxy " + proxy.getId(), Futures.unwrap(t));
+				if (t != null || !Boolean.TRUE.equals(responsive)) throw new CompletionException(new ContainerProxyException("Container did not respond in time"));
+				recordStartupStage(proxy, "probe", stageStart, System.currentTimeMillis());
+				return proxy;
+			});
+		}).handle((p, t) -> {
+			try {
+				if (t != null) {
+					Throwable cause = Futures.unwrap(t);
+					if (!(cause instanceof ContainerProxyException)) cause = new ContainerProxyException("Failed to start container", cause);
+					failStartProxy(proxy, result, (ContainerProxyException) cause);
+				} else {
+					proxy.setStartupTimestamp(System.currentTimeMillis());
+					proxy.setStatus(ProxyStatus.Up);
+					result.complete(proxy);
+				}
+			} catch (Throwable e) {
+				failStartProxy(proxy, result, new ContainerProxyException("Failed to start container", e));
+			}
+			return null;
+		});
+		return result;
+	}
+	
+	private void failStartProxy(Proxy proxy, CompletableFuture<Proxy> result, ContainerProxyException e) {
+		Futures.call(() -> stopProxyAsync(proxy)).whenComplete((p, t) -> {
+			try {
+				if (t != null) log.error("Failed to clean up proxy " + proxy.getId(), Futures.unwrap(t));
+			} finally {
+				result.completeExceptionally(e);
+			}
+		});
 	}
 
-	protected void doStartProxy(Proxy proxy) throws Exception {
+	/**
+	 * Start the containers of the given proxy, one after the other.
+	 * 
+	 * @param proxy The proxy whose containers to start.
+	 * @param executor The executor to run blocking calls on.
+	 * @return A future that completes once all containers have started.
+	 */
+	protected CompletableFuture<Void> doStartProxyAsync(Proxy proxy, Executor executor) {
+		CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
 		for (ContainerSpec spec: proxy.getSpec().getContainerSpecs()) {
-
-			Container container = null;
-
 			if (spec.isProxyManaged()) {
-				container = startContainer(spec, proxy);
-			}
-			else {
-				// add labels need for App Recovery and maintenance
-				spec.addLabel(LABEL_PROXY_ID, proxy.getId());
-				spec.addLabel(LABEL_PROXY_SPEC_ID, proxy.getSpec().getId());
-				spec.addLabel(LABEL_STARTUP_TIMESTAMP, String.valueOf(proxy.getStartupTimestamp()));
-				ExpressionAwareContainerSpec eSpec = new ExpressionAwareContainerSpec(spec, proxy, expressionResolver);
-				container = new Container();
-				container.setSpec(spec);
-				container.setId(UUID.randomUUID().toString());
-
-				String mapping = mappingStrategy.createMapping("default", container, proxy);
-				URI target = new URI(spec.getAppUrl());
-				proxy.getTargets().put(mapping, target);
-				// remove labels needed for App Recovery since they do not really belong to the spec
-				spec.removeLabel(LABEL_PROXY_ID);
-				spec.removeLabel(LABEL_PROXY_SPEC_ID);
-				spec.removeLabel(LABEL_STARTUP_TIMESTAMP);
+				chain = chain.thenCompose(v -> {
+					Timer.Sample sample = Timer.start(meterRegistry);
+					return startContainerAsync(spec, proxy, executor).thenAccept(container -> {
+						sample.stop(getStageTimer("startContainer"));
+						proxy.getContainers().add(container);
+					});
+				});
+			} else {
+				chain = chain.thenRun(() -> {
+					try {
+						proxy.getContainers().add(createUnmanagedContainer(spec, proxy));
+					} catch (Exception e) {
+						throw new CompletionException(e);
+					}
+				});
 			}
-
-			proxy.getContainers().add(container);
 		}
+		return chain;
+	}
+	
+	protected Container createUnmanagedContainer(ContainerSpec spec, Proxy proxy) throws Exception {
+		// add labels need for App Recovery and maintenance, on a copy since the spec may be shared between proxies
+		ContainerSpec labelledSpec = new ContainerSpec();
+		spec.copy(labelledSpec);
+		labelledSpec.addLabel(LABEL_PROXY_ID, proxy.getId());
+		labelledSpec.addLabel(LABEL_PROXY_SPEC_ID, proxy.getSpec().getId());
+		labelledSpec.addLabel(LABEL_STARTUP_TIMESTAMP, String.valueOf(proxy.getStartupTimestamp()));
+		ExpressionAwareContainerSpec eSpec = new ExpressionAwareContainerSpec(labelledSpec, proxy, expressionResolver);
+		Container container = new Container();
+		container.setSpec(labelledSpec);
+		container.setId(UUID.randomUUID().toString());
+
+		String mapping = mappingStrategy.createMapping("default", container, proxy);
+		URI target = new URI(spec.getAppUrl());
+		proxy.getTargets().put(mapping, target);
+		// the labels needed for App Recovery do not really belong to the spec
+		container.setSpec(spec);
+		return container;
 	}
 	
 	protected abstract Container startContainer(ContainerSpec spec, Proxy proxy) throws Exception;
 	
+	/**
+	 * Start a container without blocking the calling thread.
+	 * By default, this runs {@link #startContainer(ContainerSpec, Proxy)} on the given executor.
+	 * Backends that have to wait for a container to become ready should override this,
+	 * so that no thread is held while waiting.
+	 */
+	protected CompletableFuture<Container> startContainerAsync(ContainerSpec spec, Proxy proxy, Executor executor) {
+		return Futures.supplyAsync(() -> startContainer(spec, proxy), executor);
+	}
+	
 	@Override
 	public void stopProxy(Proxy proxy) throws ContainerProxyException {
-		try {
-			proxy.setStatus(ProxyStatus.Stopping);
-			doStopProxy(proxy);
+		Futures.await(stopProxyAsync(proxy));
+	}
+	
+	@Override
+	public CompletableFuture<Proxy> stopProxyAsync(Proxy proxy) {
+		proxy.setStatus(ProxyStatus.Stopping);
+		Timer.Sample sample = Timer.start(meterRegistry);
+		return doStopProxyAsync(proxy, getBackendExecutor()).handle((v, t) -> {
+			if (t != null) throw new ContainerProxyException("Failed to stop container", Futures.unwrap(t));
+			sample.stop(getStageTimer("stop"));
 			proxy.setStatus(ProxyStatus.Stopped);
-		} catch (Exception e) {
-			throw new ContainerProxyException("Failed to stop container", e);
-		}
+			return proxy;
+		});
 	}
 
 	protected abstract void doStopProxy(Proxy proxy) throws Exception;
 	
+	/**
+	 * Stop the containers of a proxy without blocking the calling thread.
+	 * By default, this runs {@link #doStopProxy(Proxy)} on the given executor.
+	 */
+	protected CompletableFuture<Void> doStopProxyAsync(Proxy proxy, Executor executor) {
+		return Futures.runAsync(() -> doStopProxy(proxy), executor);
+	}
+	
 	@Override
-	public BiConsumer<OutputStream, OutputStream> getOutputAttacher(Proxy proxy) {
-		// Default: do not support output attaching.
+	public IContainerOutputPoller getOutputPoller(Proxy proxy) {
+		// Default: do not support output polling.
 		return null;
 	}
 	
+	/**
+	 * Get the timer that measures the duration of a stage of the proxy lifecycle in this backend.
+	 */
+	protected Timer getStageTimer(String stage) {
+		return meterRegistry.timer("proxy.backend.stage", "backend", getClass().getSimpleName(), "stage", stage);
+	}
+	
+	/**
+	 * Add a stage to the startup timeline of the given proxy, and record its duration
+	 * in the proxy.startup.stage histogram.
+	 */
+	protected void recordStartupStage(Proxy proxy, String stage, long startTimestamp, long endTimestamp) {
+		proxy.getStartupStages().add(new ProxyStartupStage(stage, startTimestamp, endTimestamp));
+		Timer.builder("proxy.startup.stage")
+			.tag("spec", proxy.getSpec().getId())
+			.tag("stage", stage)
+			.publishPercentileHistogram()
+			.register(meterRegistry)
+			.record(endTimestamp - startTimestamp, TimeUnit.MILLISECONDS);
+	}
+	
 	protected String getProperty(String key) {
 		return getProperty(key, null);
 	}
@@ -20,8 +20,7 @@
  */
 package eu.openanalytics.containerproxy.backend;
 
-import java.io.OutputStream;
-import java.util.function.BiConsumer;
+import java.util.concurrent.CompletableFuture;
 
 import eu.openanalytics.containerproxy.ContainerProxyException;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
@@ -56,15 +55,47 @@ public interface IContainerBackend {
 	public void stopProxy(Proxy proxy) throws ContainerProxyException;
 	
 	/**
-	 * Get a function that will forward the standard output and standard error of
+	 * Start the given proxy, without blocking the calling thread.
+	 * The default implementation runs {@link #startProxy(Proxy)} on the common pool;
+	 * backends should override this with a non-blocking implementation.
+	 * 
+	 * @param proxy The proxy to start up.
+	 * @return A future that completes with the proxy once it is in the {@link ProxyStatus#Up} state,
+	 * or completes exceptionally with a {@link ContainerProxyException} if the startup fails for any reason.
+	 */
+	public default CompletableFuture<Proxy> startProxyAsync(Proxy proxy) {
+		return CompletableFuture.supplyAsync(() -> {
+			startProxy(proxy);
+			return proxy;
+		});
+	}
+	
+	/**
+	 * Stop the given proxy, without blocking the calling thread.
+	 * The default implementation runs {@link #stopProxy(Proxy)} on the common pool;
+	 * backends should override this with a non-blocking implementation.
+	 * 
+	 * @param proxy The proxy to stop.
+	 * @return A future that completes with the proxy once it is stopped,
+	 * or completes exceptionally with a {@link ContainerProxyException} if an error occurs while stopping the proxy.
+	 */
+	public default CompletableFuture<Proxy> stopProxyAsync(Proxy proxy) {
+		return CompletableFuture.supplyAsync(() -> {
+			stopProxy(proxy);
+			return proxy;
+		});
+	}
+	
+	/**
+	 * Get a poller that will forward the standard output and standard error of
 	 * the given proxy's containers to two output streams.
 	 * 
-	 * The function will be executed in a separate thread, and is assumed to block
-	 * until the container stops.
+	 * The poller will be called periodically from a shared thread pool, and may not
+	 * block until the container stops.
 	 * 
-	 * @param proxy The proxy whose container output should be attached to the output streams.
-	 * @return A function that will attach the output, or null if this backend does
-	 * not support output attaching.
+	 * @param proxy The proxy whose container output should be forwarded to the output streams.
+	 * @return A poller that will forward the output, or null if this backend does
+	 * not support output polling.
 	 */
-	public BiConsumer<OutputStream, OutputStream> getOutputAttacher(Proxy proxy);
+	public IContainerOutputPoller getOutputPoller(Proxy proxy);
 }
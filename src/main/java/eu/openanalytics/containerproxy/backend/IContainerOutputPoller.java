@@ -0,0 +1,49 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.backend;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import eu.openanalytics.containerproxy.model.runtime.Container;
+
+/**
+ * Reads the output of a proxy's containers in chunks.
+ * <p>
+ * A poller is called periodically by a small, shared pool of threads, once for each container of the proxy.
+ * Each call should forward only the output that was produced by that container since the previous call,
+ * and return without waiting for more output. If a call fails, the next call should resume where the last
+ * successful call ended.
+ * </p>
+ */
+public interface IContainerOutputPoller {
+
+	/**
+	 * Forward the output that was produced by a container since the previous call to the given streams.
+	 * 
+	 * @param container The container whose output to forward.
+	 * @param stdOut The stream to forward the standard output to.
+	 * @param stdErr The stream to forward the standard error to.
+	 * @throws IOException If the output could not be read or forwarded.
+	 */
+	public void poll(Container container, OutputStream stdOut, OutputStream stdErr) throws IOException;
+
+}
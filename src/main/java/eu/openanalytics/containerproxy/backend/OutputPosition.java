@@ -0,0 +1,74 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.backend;
+
+import java.time.Instant;
+
+/**
+ * Tracks which timestamped output lines of a container have already been forwarded.
+ * <p>
+ * Output is requested from the last forwarded timestamp onwards, usually rounded down to the second,
+ * so each read repeats lines that were forwarded before. Since several lines can share a timestamp,
+ * the number of lines forwarded with exactly the last timestamp is tracked as well.
+ * </p>
+ */
+public class OutputPosition {
+
+	private Instant timestamp;
+	private int forwardedAtTimestamp;
+	private int seenAtTimestamp;
+	
+	/**
+	 * @return The timestamp of the last forwarded line, or null if no line was forwarded yet.
+	 */
+	public synchronized Instant getTimestamp() {
+		return timestamp;
+	}
+	
+	/**
+	 * Must be called before passing the lines of a new read to {@link #accept(Instant)}.
+	 */
+	public synchronized void startRead() {
+		seenAtTimestamp = 0;
+	}
+	
+	/**
+	 * Check whether a line must be forwarded, and if so, mark it as forwarded.
+	 * The lines of a read must be passed in the order in which they were produced.
+	 * 
+	 * @param lineTimestamp The timestamp of the line.
+	 * @return True if the line was not forwarded before.
+	 */
+	public synchronized boolean accept(Instant lineTimestamp) {
+		if (timestamp == null || lineTimestamp.isAfter(timestamp)) {
+			timestamp = lineTimestamp;
+			forwardedAtTimestamp = 1;
+			seenAtTimestamp = 1;
+			return true;
+		}
+		if (lineTimestamp.isBefore(timestamp)) return false;
+		
+		seenAtTimestamp++;
+		if (seenAtTimestamp <= forwardedAtTimestamp) return false;
+		forwardedAtTimestamp++;
+		return true;
+	}
+}
@@ -22,19 +22,29 @@ package eu.openanalytics.containerproxy.backend.docker;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
-import java.util.function.BiConsumer;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.spotify.docker.client.DefaultDockerClient;
 import com.spotify.docker.client.DockerCertificates;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.DockerClient.LogsParam;
+import com.spotify.docker.client.LogMessage;
 import com.spotify.docker.client.LogStream;
 import com.spotify.docker.client.exceptions.DockerCertificateException;
 import com.spotify.docker.client.exceptions.DockerException;
 
 import eu.openanalytics.containerproxy.ContainerProxyException;
 import eu.openanalytics.containerproxy.backend.AbstractContainerBackend;
+import eu.openanalytics.containerproxy.backend.IContainerOutputPoller;
+import eu.openanalytics.containerproxy.backend.OutputPosition;
 import eu.openanalytics.containerproxy.model.runtime.Container;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 import eu.openanalytics.containerproxy.util.PortAllocator;
@@ -84,18 +94,9 @@ public abstract class AbstractDockerBackend extends AbstractContainerBackend {
 	}
 	
 	@Override
-	public BiConsumer<OutputStream, OutputStream> getOutputAttacher(Proxy proxy) {
-		Container c = getPrimaryContainer(proxy);
-		if (c == null) return null;
-		
-		return (stdOut, stdErr) -> {
-			try {
-				LogStream logStream = dockerClient.logs(c.getId(), LogsParam.follow(), LogsParam.stdout(), LogsParam.stderr());
-				logStream.attach(stdOut, stdErr);
-			} catch (IOException | InterruptedException | DockerException e) {
-				log.error("Error while attaching to container output", e);
-			}
-		};
+	public IContainerOutputPoller getOutputPoller(Proxy proxy) {
+		if (proxy.getContainers().isEmpty()) return null;
+		return new DockerOutputPoller();
 	}
 
 	@Override
@@ -106,5 +107,65 @@ public abstract class AbstractDockerBackend extends AbstractContainerBackend {
 	protected Container getPrimaryContainer(Proxy proxy) {
 		return proxy.getContainers().isEmpty() ? null : proxy.getContainers().get(0);
 	}
+	
+	/**
+	 * Reads container output in chunks, using the timestamps that docker prefixes to each log line.
+	 * Docker's 'since' parameter has a granularity of one second, so lines that were already forwarded
+	 * in a previous poll are skipped using their timestamp, see {@link OutputPosition}.
+	 */
+	private class DockerOutputPoller implements IContainerOutputPoller {
+		
+		private final Map<String, OutputPosition> positions = new ConcurrentHashMap<>();
+		
+		@Override
+		public void poll(Container container, OutputStream stdOut, OutputStream stdErr) throws IOException {
+			String containerId = container.getId();
+			OutputPosition position = positions.computeIfAbsent(containerId, k -> new OutputPosition());
+			Instant lastTimestamp = position.getTimestamp();
+			
+			List<LogsParam> params = new ArrayList<>();
+			params.add(LogsParam.stdout());
+			params.add(LogsParam.stderr());
+			params.add(LogsParam.timestamps());
+			if (lastTimestamp != null) params.add(LogsParam.since((int) lastTimestamp.getEpochSecond()));
+			
+			try (LogStream logStream = dockerClient.logs(containerId, params.toArray(new LogsParam[params.size()]))) {
+				position.startRead();
+				while (logStream.hasNext()) {
+					LogMessage message = logStream.next();
+					ByteBuffer content = message.content();
+					byte[] bytes = new byte[content.remaining()];
+					content.get(bytes);
+					
+					int separator = indexOf(bytes, (byte) ' ');
+					if (separator < 0) continue;
+					Instant timestamp;
+					try {
+						timestamp = Instant.parse(new String(bytes, 0, separator, StandardCharsets.US_ASCII));
+					} catch (DateTimeParseException e) {
+						continue;
+					}
+					if (!position.accept(timestamp)) continue;
+					
+					OutputStream target = (message.stream() == LogMessage.Stream.STDERR) ? stdErr : stdOut;
+					target.write(bytes, separator + 1, bytes.length - separator - 1);
+				}
+			} catch (DockerException e) {
+				throw new IOException("Failed to read output of container " + containerId, e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading output of container " + containerId, e);
+			}
+			stdOut.flush();
+			stdErr.flush();
+		}
+		
+		private int indexOf(byte[] bytes, byte value) {
+			for (int i = 0; i < bytes.length; i++) {
+				if (bytes[i] == value) return i;
+			}
+			return -1;
+		}
+	}
 
 }
@@ -81,15 +81,21 @@ public class DockerEngineBackend extends AbstractDockerBackend {
 			    .cmd(spec.getCmd())
 			    .env(buildEnv(spec, proxy))
 			    .build();
+		long stageStart = System.currentTimeMillis();
 		ContainerCreation containerCreation = dockerClient.createContainer(containerConfig);
+		recordStartupStage(proxy, "createContainer", stageStart, System.currentTimeMillis());
 		
 		if (spec.getNetworkConnections() != null) {
+			stageStart = System.currentTimeMillis();
 			for (String networkConnection: spec.getNetworkConnections()) {
 				dockerClient.connectToNetwork(containerCreation.id(), networkConnection);
 			}
+			recordStartupStage(proxy, "connectNetworks", stageStart, System.currentTimeMillis());
 		}
 		
+		stageStart = System.currentTimeMillis();
 		dockerClient.startContainer(containerCreation.id());
+		recordStartupStage(proxy, "startContainer", stageStart, System.currentTimeMillis());
 		
 		Container container = new Container();
 		container.setSpec(spec);
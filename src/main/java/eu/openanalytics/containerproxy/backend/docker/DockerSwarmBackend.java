@@ -27,6 +27,9 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import com.spotify.docker.client.messages.mount.Mount;
 import com.spotify.docker.client.messages.swarm.DnsConfig;
@@ -41,6 +44,7 @@ import eu.openanalytics.containerproxy.ContainerProxyException;
 import eu.openanalytics.containerproxy.model.runtime.Container;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 import eu.openanalytics.containerproxy.model.spec.ContainerSpec;
+import eu.openanalytics.containerproxy.util.Futures;
 import eu.openanalytics.containerproxy.util.Retrying;
 
 public class DockerSwarmBackend extends AbstractDockerBackend {
@@ -59,8 +63,33 @@ public class DockerSwarmBackend extends AbstractDockerBackend {
 	
 	@Override
 	protected Container startContainer(ContainerSpec spec, Proxy proxy) throws Exception {
+		return Futures.await(startContainerAsync(spec, proxy, getBackendExecutorForCaller()));
+	}
+	
+	@Override
+	protected CompletableFuture<Container> startContainerAsync(ContainerSpec spec, Proxy proxy, Executor executor) {
 		Container container = new Container();
 		container.setSpec(spec);
+		List<PortConfig> portsToPublish = new ArrayList<>();
+		
+		return Futures.supplyAsync(() -> createService(spec, container, portsToPublish, proxy), executor)
+				.thenCompose(serviceName -> waitForTask(serviceName, container, proxy, executor))
+				.thenApply(v -> {
+					try {
+						addTargets(spec, container, portsToPublish, proxy);
+					} catch (Exception e) {
+						throw new CompletionException(e);
+					}
+					return container;
+				});
+	}
+	
+	/**
+	 * Create the swarm service of a container.
+	 * 
+	 * @return The name of the created service.
+	 */
+	private String createService(ContainerSpec spec, Container container, List<PortConfig> portsToPublish, Proxy proxy) throws Exception {
 		
 		Mount[] mounts = null;
 		if (spec.getVolumes() != null) mounts = Arrays.stream(spec.getVolumes())
@@ -96,7 +125,6 @@ public class DockerSwarmBackend extends AbstractDockerBackend {
 						.containerSpec(containerSpec)
 						.build());
 		
-		List<PortConfig> portsToPublish = new ArrayList<>();
 		if (isUseInternalNetwork()) {
 			// In internal networking mode, we can access container ports directly, no need to bind on host.
 		} else {
@@ -108,11 +136,19 @@ public class DockerSwarmBackend extends AbstractDockerBackend {
 			serviceSpecBuilder.endpointSpec(EndpointSpec.builder().ports(portsToPublish).build());
 		}
 		
+		long stageStart = System.currentTimeMillis();
 		String serviceId = dockerClient.createService(serviceSpecBuilder.build()).id();
 		container.getParameters().put(PARAM_SERVICE_ID, serviceId);
-		
-		// Give the service some time to start up and launch a container.
-		boolean containerFound = Retrying.retry(i -> {
+		recordStartupStage(proxy, "createService", stageStart, System.currentTimeMillis());
+		return serviceName;
+	}
+	
+	/**
+	 * Give the service some time to start up and launch a container, without holding a thread while waiting.
+	 */
+	private CompletableFuture<Void> waitForTask(String serviceName, Container container, Proxy proxy, Executor executor) {
+		long stageStart = System.currentTimeMillis();
+		return Retrying.retryAsync(i -> {
 			try {
 				Task serviceTask = dockerClient
 						.listTasks(Task.Criteria.builder().serviceName(serviceName).build())
@@ -122,13 +158,28 @@ public class DockerSwarmBackend extends AbstractDockerBackend {
 				throw new RuntimeException("Failed to inspect swarm service tasks", e);
 			}
 			return (container.getId() != null);
-		}, 30, 2000, true);
-		
-		if (!containerFound) {
-			dockerClient.removeService(serviceId);
+		}, 250, 2000, 60000, true, executor).handleAsync((containerFound, t) -> {
+			if (t == null && containerFound) {
+				recordStartupStage(proxy, "waitForTask", stageStart, System.currentTimeMillis());
+				return null;
+			}
+			// Do not leave the service behind, whether the last attempt failed or the task never got a container.
+			removeService(container);
+			if (t != null) throw new CompletionException(Futures.unwrap(t));
 			throw new IllegalStateException("Swarm container did not start in time");
+		}, executor);
+	}
+	
+	private void removeService(Container container) {
+		String serviceId = (String) container.getParameters().get(PARAM_SERVICE_ID);
+		try {
+			dockerClient.removeService(serviceId);
+		} catch (Exception e) {
+			log.warn("Failed to remove swarm service " + serviceId, e);
 		}
-		
+	}
+	
+	private void addTargets(ContainerSpec spec, Container container, List<PortConfig> portsToPublish, Proxy proxy) throws Exception {
 		// Calculate proxy routes for all configured ports.
 		for (String mappingKey: spec.getPortMapping().keySet()) {
 			int containerPort = spec.getPortMapping().get(mappingKey);
@@ -141,8 +192,6 @@ public class DockerSwarmBackend extends AbstractDockerBackend {
 			URI target = calculateTarget(container, containerPort, servicePort);
 			proxy.getTargets().put(mapping, target);
 		}
-		
-		return container;
 	}
 
 	protected URI calculateTarget(Container container, int containerPort, int servicePort) throws Exception {
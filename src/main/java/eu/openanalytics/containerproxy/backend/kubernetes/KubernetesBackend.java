@@ -20,34 +20,45 @@
  */
 package eu.openanalytics.containerproxy.backend.kubernetes;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.function.BiConsumer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 import javax.json.JsonPatch;
 
 import javax.inject.Inject;
 
-import org.apache.commons.io.IOUtils;
-
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
@@ -59,21 +70,26 @@ import com.google.common.base.Splitter;
 import eu.openanalytics.containerproxy.ContainerProxyApplication;
 import eu.openanalytics.containerproxy.ContainerProxyException;
 import eu.openanalytics.containerproxy.backend.AbstractContainerBackend;
+import eu.openanalytics.containerproxy.backend.IContainerOutputPoller;
+import eu.openanalytics.containerproxy.backend.OutputPosition;
 import eu.openanalytics.containerproxy.model.runtime.Container;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 import eu.openanalytics.containerproxy.model.spec.ContainerSpec;
 import eu.openanalytics.containerproxy.spec.expression.SpecExpressionContext;
 import eu.openanalytics.containerproxy.spec.expression.SpecExpressionResolver;
+import eu.openanalytics.containerproxy.util.Futures;
 import eu.openanalytics.containerproxy.util.Retrying;
 import io.fabric8.kubernetes.api.model.ContainerBuilder;
 import io.fabric8.kubernetes.api.model.ContainerPort;
 import io.fabric8.kubernetes.api.model.ContainerPortBuilder;
+import io.fabric8.kubernetes.api.model.ContainerStatus;
 import io.fabric8.kubernetes.api.model.EnvVar;
 import io.fabric8.kubernetes.api.model.EnvVarSourceBuilder;
 import io.fabric8.kubernetes.api.model.HasMetadata;
 import io.fabric8.kubernetes.api.model.LocalObjectReference;
 import io.fabric8.kubernetes.api.model.Pod;
 import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.PodCondition;
 import io.fabric8.kubernetes.api.model.PodSpec;
 import io.fabric8.kubernetes.api.model.Quantity;
 import io.fabric8.kubernetes.api.model.ResourceRequirementsBuilder;
@@ -89,10 +105,16 @@ import io.fabric8.kubernetes.api.model.VolumeMount;
 import io.fabric8.kubernetes.api.model.VolumeMountBuilder;
 import io.fabric8.kubernetes.client.ConfigBuilder;
 import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.HttpClientAware;
 import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.dsl.LogWatch;
 import io.fabric8.kubernetes.client.internal.readiness.Readiness;
 import io.fabric8.kubernetes.client.utils.Serialization;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
 
 public class KubernetesBackend extends AbstractContainerBackend {
 
@@ -107,6 +129,10 @@ public class KubernetesBackend extends AbstractContainerBackend {
 	
 	private static final String DEFAULT_NAMESPACE = "default";
 	private static final String DEFAULT_API_VERSION = "v1";
+	private static final long RETRY_INITIAL_DELAY = 250;
+	private static final long RETRY_MAX_DELAY = 2000;
+	
+	private static final String DELETE_OPTIONS_BACKGROUND = "{\"kind\":\"DeleteOptions\",\"apiVersion\":\"v1\",\"propagationPolicy\":\"Background\"}";
 	
 	private static final String PARAM_POD = "pod";
 	private static final String PARAM_SERVICE = "service";
@@ -156,10 +182,103 @@ public class KubernetesBackend extends AbstractContainerBackend {
 
 	@Override
 	protected Container startContainer(ContainerSpec spec, Proxy proxy) throws Exception {
+		return Futures.await(startContainerAsync(spec, proxy, getBackendExecutorForCaller()));
+	}
+	
+	@Override
+	protected CompletableFuture<Container> startContainerAsync(ContainerSpec spec, Proxy proxy, Executor executor) {
 		Container container = new Container();
 		container.setSpec(spec);
 		container.setId(UUID.randomUUID().toString());
 		
+		return Futures.supplyAsync(() -> buildPod(spec, container, proxy), executor)
+				.thenCompose(pod -> startResources(spec, container, proxy, pod, executor))
+				.thenApply(c -> {
+					try {
+						addTargets(spec, container, proxy);
+					} catch (Exception e) {
+						throw new CompletionException(e);
+					}
+					return container;
+				});
+	}
+	
+	/**
+	 * Creates the additional manifests, the pod and the service of a container concurrently,
+	 * and then waits for the pod and the service to become ready in parallel.
+	 * None of these resources depend on the readiness of another one.
+	 * If any step fails, all resources created here are removed again.
+	 */
+	private CompletableFuture<Container> startResources(ContainerSpec spec, Container container, Proxy proxy, Pod podDefinition, Executor executor) {
+		final String namespace = podDefinition.getMetadata().getNamespace();
+		container.getParameters().put(PARAM_NAMESPACE, namespace);
+		
+		// create additional manifests -> use the effective (i.e. patched) namespace if no namespace is provided
+		long manifestStageStart = System.currentTimeMillis();
+		List<CompletableFuture<HasMetadata>> manifests = getAdditionManifestsAsObjects(proxy, namespace).stream()
+				.map(m -> createAdditionalManifest(m, proxy, executor))
+				.collect(Collectors.toList());
+		allOf(manifests).thenRun(() -> recordStartupStage(proxy, "createManifests", manifestStageStart, System.currentTimeMillis()));
+		
+		long podStageStart = System.currentTimeMillis();
+		CompletableFuture<Pod> pod = Futures.supplyAsync(() -> kubeClient.pods().inNamespace(namespace).create(podDefinition), executor);
+		pod.thenRun(() -> recordStartupStage(proxy, "createPod", podStageStart, System.currentTimeMillis()));
+		
+		// If SP runs inside the cluster, it can access pods directly and doesn't need any port publishing service.
+		long serviceStageStart = System.currentTimeMillis();
+		CompletableFuture<Service> service = isUseInternalNetwork() ? CompletableFuture.completedFuture(null) :
+			Futures.supplyAsync(() -> createService(spec, container, proxy, namespace), executor);
+		
+		List<CompletableFuture<? extends HasMetadata>> created = new ArrayList<>(manifests);
+		created.add(pod);
+		created.add(service);
+		
+		CompletableFuture<Void> ready = allOf(created).thenCompose(v -> {
+			CompletableFuture<Pod> readyPod = waitForPod(pod.join(), proxy, executor);
+			CompletableFuture<Service> readyService = (service.join() == null) ? CompletableFuture.completedFuture(null) :
+				waitForService(service.join(), executor).thenApply(s -> {
+					recordStartupStage(proxy, "createService", serviceStageStart, System.currentTimeMillis());
+					return s;
+				});
+			return CompletableFuture.allOf(readyPod, readyService).thenRun(() -> {
+				container.getParameters().put(PARAM_POD, readyPod.join());
+				if (readyService.join() != null) container.getParameters().put(PARAM_SERVICE, readyService.join());
+			});
+		});
+		
+		return ready.<CompletableFuture<Container>>handle((v, t) -> {
+			if (t == null) return CompletableFuture.completedFuture(container);
+			return rollback(created, executor).<Container>thenApply(x -> {
+				throw new CompletionException(Futures.unwrap(t));
+			});
+		}).thenCompose(f -> f);
+	}
+	
+	/**
+	 * Removes the resources of a failed startup. Resources that failed to be created (or already existed) are skipped.
+	 */
+	private CompletableFuture<Void> rollback(List<CompletableFuture<? extends HasMetadata>> created, Executor executor) {
+		return allOf(created.stream()
+				.filter(f -> !f.isCompletedExceptionally())
+				.map(f -> (HasMetadata) f.join())
+				.filter(Objects::nonNull)
+				.map(resource -> Futures.runAsync(() -> kubeClient.resource(resource).delete(), executor)
+						.exceptionally(t -> {
+							log.warn(String.format("Failed to remove %s %s after a failed startup", resource.getKind(), resource.getMetadata().getName()), Futures.unwrap(t));
+							return null;
+						}))
+				.collect(Collectors.toList()));
+	}
+	
+	private static CompletableFuture<Void> allOf(List<? extends CompletableFuture<?>> futures) {
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]));
+	}
+	
+	/**
+	 * Build the (patched) definition of the pod of a container.
+	 * The namespace of the returned pod is the namespace in which all resources of the container are created.
+	 */
+	private Pod buildPod(ContainerSpec spec, Container container, Proxy proxy) throws Exception {
 		String kubeNamespace = getProperty(PROPERTY_NAMESPACE, DEFAULT_NAMESPACE);
 		String apiVersion = getProperty(PROPERTY_API_VERSION, DEFAULT_API_VERSION);
 		
@@ -248,6 +367,7 @@ public class KubernetesBackend extends AbstractContainerBackend {
 					.withName("sp-pod-" + container.getId())
 					.addToLabels(spec.getLabels())
 					.addToLabels("app", container.getId())
+					.addToLabels(LABEL_PROXY_ID, proxy.getId())
 					.addToLabels(LABEL_INSTANCE, getInstanceId())
 					.addToLabels(LABEL_PROXIED_APP, "true")
 				.endMetadata();
@@ -266,64 +386,67 @@ public class KubernetesBackend extends AbstractContainerBackend {
 		JsonPatch patch = readPatchFromSpec(spec, proxy);
 		
 		Pod startupPod = podBuilder.withSpec(podSpec).build();
-		Pod patchedPod = podPatcher.patchWithDebug(startupPod, patch);
-		final String effectiveKubeNamespace = patchedPod.getMetadata().getNamespace(); // use the namespace of the patched Pod, in case the patch changes the namespace.
-		container.getParameters().put(PARAM_NAMESPACE, effectiveKubeNamespace);
-		
-		// create additional manifests -> use the effective (i.e. patched) namespace if no namespace is provided
-		createAdditionalManifstes(proxy, effectiveKubeNamespace);
-		
-		Pod startedPod = kubeClient.pods().inNamespace(effectiveKubeNamespace).create(patchedPod);
-		
+		return podPatcher.patchWithDebug(startupPod, patch); // the namespace of the patched pod is used, in case the patch changes the namespace.
+	}
+	
+	/**
+	 * Wait for a pod to become ready, without holding a thread while waiting.
+	 */
+	private CompletableFuture<Pod> waitForPod(Pod startedPod, Proxy proxy, Executor executor) {
 		int totalWaitMs = Integer.parseInt(environment.getProperty("proxy.kubernetes.pod-wait-time", "60000"));
-		int maxTries = totalWaitMs / 1000;
-		Retrying.retry(i -> {
+		return Retrying.retryAsync(i -> {
 				if (!Readiness.isReady(kubeClient.resource(startedPod).fromServer().get())) {
-					if (i > 1 && log != null) log.debug(String.format("Container not ready yet, trying again (%d/%d)", i, maxTries));
+					if (i > 1 && log != null) log.debug(String.format("Container not ready yet, trying again (attempt %d)", i));
 					return false;
 				}
 				return true;
 			}
-		, maxTries, 1000);
-		if (!Readiness.isReady(kubeClient.resource(startedPod).fromServer().get())) {
+		, RETRY_INITIAL_DELAY, RETRY_MAX_DELAY, totalWaitMs, false, executor).thenApplyAsync(ready -> {
 			Pod pod = kubeClient.resource(startedPod).fromServer().get();
-			container.getParameters().put(PARAM_POD, pod);
-			proxy.getContainers().add(container);
-			throw new ContainerProxyException("Container did not become ready in time");
-		}
-		Pod pod = kubeClient.resource(startedPod).fromServer().get();
-		
-		Service service = null;
-		if (isUseInternalNetwork()) {
-			// If SP runs inside the cluster, it can access pods directly and doesn't need any port publishing service.
-		} else {
-			List<ServicePort> servicePorts = spec.getPortMapping().values().stream()
-					.map(p -> new ServicePortBuilder().withPort(p).build())
-					.collect(Collectors.toList());
-			
-			Service startupService = kubeClient.services().inNamespace(effectiveKubeNamespace).createNew()
-					.withApiVersion(apiVersion)
-					.withKind("Service")
-					.withNewMetadata()
-						.withName("sp-service-" + container.getId())
-						.addToLabels(LABEL_INSTANCE, getInstanceId())
-						.addToLabels(LABEL_PROXIED_APP, "true")
-						.endMetadata()
-					.withNewSpec()
-						.addToSelector("app", container.getId())
-						.withType("NodePort")
-						.withPorts(servicePorts)
-						.endSpec()
-					.done();
-
-			// Workaround: waitUntilReady appears to be buggy.
-			Retrying.retry(i -> isServiceReady(kubeClient.resource(startupService).fromServer().get()), 60, 1000);
-			
-			service = kubeClient.resource(startupService).fromServer().get();
-		}
+			if (!Readiness.isReady(pod)) throw new ContainerProxyException("Container did not become ready in time");
+			recordPodStartupStages(proxy, pod);
+			return pod;
+		}, executor);
+	}
+	
+	/**
+	 * Create the NodePort service that publishes the ports of a container.
+	 * The service selects the pod by its label, so it can be created before the pod exists.
+	 */
+	private Service createService(ContainerSpec spec, Container container, Proxy proxy, String namespace) throws Exception {
+		String apiVersion = getProperty(PROPERTY_API_VERSION, DEFAULT_API_VERSION);
+		List<ServicePort> servicePorts = spec.getPortMapping().values().stream()
+				.map(p -> new ServicePortBuilder().withPort(p).build())
+				.collect(Collectors.toList());
 		
-		container.getParameters().put(PARAM_POD, pod);
-		container.getParameters().put(PARAM_SERVICE, service);
+		return kubeClient.services().inNamespace(namespace).createNew()
+				.withApiVersion(apiVersion)
+				.withKind("Service")
+				.withNewMetadata()
+					.withName("sp-service-" + container.getId())
+					.addToLabels(LABEL_PROXY_ID, proxy.getId())
+					.addToLabels(LABEL_INSTANCE, getInstanceId())
+					.addToLabels(LABEL_PROXIED_APP, "true")
+					.endMetadata()
+				.withNewSpec()
+					.addToSelector("app", container.getId())
+					.withType("NodePort")
+					.withPorts(servicePorts)
+					.endSpec()
+				.done();
+	}
+	
+	/**
+	 * Wait for a service to become ready, without holding a thread while waiting.
+	 */
+	private CompletableFuture<Service> waitForService(Service startupService, Executor executor) {
+		// Workaround: waitUntilReady appears to be buggy.
+		return Retrying.retryAsync(i -> isServiceReady(kubeClient.resource(startupService).fromServer().get()), RETRY_INITIAL_DELAY, RETRY_MAX_DELAY, 60000, false, executor)
+				.thenApplyAsync(ready -> kubeClient.resource(startupService).fromServer().get(), executor);
+	}
+	
+	private void addTargets(ContainerSpec spec, Container container, Proxy proxy) throws Exception {
+		Service service = (Service) container.getParameters().get(PARAM_SERVICE);
 		
 		// Calculate proxy routes for all configured ports.
 		for (String mappingKey: spec.getPortMapping().keySet()) {
@@ -338,9 +461,6 @@ public class KubernetesBackend extends AbstractContainerBackend {
 			URI target = calculateTarget(container, containerPort, servicePort);
 			proxy.getTargets().put(mapping, target);
 		}
-		
-		
-		return container;
 	}
 	
 	private JsonPatch readPatchFromSpec(ContainerSpec containerSpec, Proxy proxy) throws JsonMappingException, JsonProcessingException {
@@ -359,16 +479,18 @@ public class KubernetesBackend extends AbstractContainerBackend {
 	}
 	
 	/**
-	 * Creates the extra manifests/resources defined in the ProxySpec.
+	 * Creates an extra manifest/resource defined in the ProxySpec.
 	 * 
 	 * The resource will only be created if it does not already exist.
+	 * The future yields the created resource, or null if it already existed.
 	 */
-	private void createAdditionalManifstes(Proxy proxy, String namespace) {
-		for (HasMetadata fullObject: getAdditionManifestsAsObjects(proxy, namespace)) {
-			if (kubeClient.resource(fullObject).fromServer().get() == null) {
-				kubeClient.resource(fullObject).createOrReplace();
-			}
-		}
+	private CompletableFuture<HasMetadata> createAdditionalManifest(HasMetadata fullObject, Proxy proxy, Executor executor) {
+		return Futures.supplyAsync(() -> {
+			if (kubeClient.resource(fullObject).fromServer().get() != null) return null;
+			if (fullObject.getMetadata().getLabels() == null) fullObject.getMetadata().setLabels(new HashMap<>());
+			fullObject.getMetadata().getLabels().put(LABEL_PROXY_ID, proxy.getId());
+			return kubeClient.resource(fullObject).createOrReplace();
+		}, executor);
 	}
 
 	/**
@@ -395,6 +517,40 @@ public class KubernetesBackend extends AbstractContainerBackend {
 		return result;
 	}
 	
+	/**
+	 * Derives the scheduling, image pull (including container start) and podReady stages
+	 * from the timestamps reported by Kubernetes in the status of a ready pod.
+	 * Note that these timestamps only have a precision of one second.
+	 */
+	private void recordPodStartupStages(Proxy proxy, Pod pod) {
+		try {
+			Long created = parseKubeTimestamp(pod.getMetadata().getCreationTimestamp());
+			Long scheduled = null;
+			Long ready = null;
+			for (PodCondition condition: pod.getStatus().getConditions()) {
+				if (condition.getType().equals("PodScheduled")) scheduled = parseKubeTimestamp(condition.getLastTransitionTime());
+				else if (condition.getType().equals("Ready")) ready = parseKubeTimestamp(condition.getLastTransitionTime());
+			}
+			Long started = null;
+			for (ContainerStatus status: pod.getStatus().getContainerStatuses()) {
+				if (status.getState() == null || status.getState().getRunning() == null) continue;
+				Long containerStarted = parseKubeTimestamp(status.getState().getRunning().getStartedAt());
+				if (containerStarted != null && (started == null || containerStarted > started)) started = containerStarted;
+			}
+			
+			if (created != null && scheduled != null) recordStartupStage(proxy, "scheduling", created, scheduled);
+			if (scheduled != null && started != null) recordStartupStage(proxy, "imagePullAndStart", scheduled, started);
+			if (started != null && ready != null) recordStartupStage(proxy, "podReady", started, ready);
+		} catch (DateTimeParseException e) {
+			log.debug("Cannot determine startup stages of pod " + pod.getMetadata().getName(), e);
+		}
+	}
+	
+	private Long parseKubeTimestamp(String timestamp) {
+		if (timestamp == null) return null;
+		return Instant.parse(timestamp).toEpochMilli();
+	}
+	
 	private boolean isServiceReady(Service service) {
 		if (service == null) {
 			return false;
@@ -429,40 +585,188 @@ public class KubernetesBackend extends AbstractContainerBackend {
 	
 	@Override
 	protected void doStopProxy(Proxy proxy) throws Exception {
-		for (Container container: proxy.getContainers()) {
-			String kubeNamespace = container.getParameters().get(PARAM_NAMESPACE).toString();
-			if (kubeNamespace == null) {
-				kubeNamespace = getProperty(PROPERTY_NAMESPACE, DEFAULT_NAMESPACE);
-			}
-			
-			Pod pod = Pod.class.cast(container.getParameters().get(PARAM_POD));
-			if (pod != null) kubeClient.pods().inNamespace(kubeNamespace).delete(pod);
-			Service service = Service.class.cast(container.getParameters().get(PARAM_SERVICE));
-			if (service != null) kubeClient.services().inNamespace(kubeNamespace).delete(service);
-
-			// delete additional manifests
-			for (HasMetadata fullObject: getAdditionManifestsAsObjects(proxy, kubeNamespace)) {
-				kubeClient.resource(fullObject).delete();
+		Futures.await(doStopProxyAsync(proxy, getBackendExecutor()));
+	}
+	
+	/**
+	 * Deletes all resources of a proxy through a constant number of API calls, issued in parallel:
+	 * one label-selector collection delete of the pods and services per namespace,
+	 * and one delete per additional manifest (these are shared by all containers of the proxy).
+	 * <p>
+	 * Pods and services created before they were labelled with the proxy id are not matched by the selector.
+	 * If the selector matches nothing, they are deleted by name instead, for every container of the proxy.
+	 * </p>
+	 */
+	@Override
+	protected CompletableFuture<Void> doStopProxyAsync(Proxy proxy, Executor executor) {
+		Map<String, List<Container>> containersByNamespace = proxy.getContainers().stream()
+				.collect(Collectors.groupingBy(c -> Optional.ofNullable(c.getParameters().get(PARAM_NAMESPACE))
+						.map(Object::toString)
+						.orElse(getProperty(PROPERTY_NAMESPACE, DEFAULT_NAMESPACE))));
+		
+		List<CompletableFuture<Void>> deletes = new ArrayList<>();
+		for (Map.Entry<String, List<Container>> entry: containersByNamespace.entrySet()) {
+			String namespace = entry.getKey();
+			List<Container> containers = entry.getValue();
+			deletes.add(Futures.runAsync(() -> {
+				if (!deletePods(namespace, proxy)) {
+					for (Container container: containers) {
+						kubeClient.pods().inNamespace(namespace).withName("sp-pod-" + container.getId()).delete();
+					}
+				}
+			}, executor));
+			if (!isUseInternalNetwork()) deletes.add(Futures.runAsync(() -> {
+				if (!deleteServices(namespace, proxy)) {
+					for (Container container: containers) {
+						kubeClient.services().inNamespace(namespace).withName("sp-service-" + container.getId()).delete();
+					}
+				}
+			}, executor));
+		}
+		
+		// delete additional manifests
+		if (!containersByNamespace.isEmpty()) {
+			for (HasMetadata fullObject: getAdditionManifestsAsObjects(proxy, containersByNamespace.keySet().iterator().next())) {
+				deletes.add(Futures.runAsync(() -> kubeClient.resource(fullObject).delete(), executor));
 			}
 		}
+		return allOf(deletes);
+	}
+	
+	/**
+	 * Deletes all pods of a proxy with a single collection delete, letting Kubernetes clean up dependents in the background.
+	 * The API is called directly because the client DSL deletes a selection of pods one by one.
+	 * 
+	 * @return True if the selector matched at least one pod.
+	 */
+	private boolean deletePods(String namespace, Proxy proxy) throws IOException {
+		if (!(kubeClient instanceof HttpClientAware)) {
+			List<Pod> pods = kubeClient.pods().inNamespace(namespace).withLabel(LABEL_PROXY_ID, proxy.getId()).list().getItems();
+			for (Pod pod: pods) kubeClient.resource(pod).delete();
+			return !pods.isEmpty();
+		}
+		
+		HttpUrl url = HttpUrl.parse(kubeClient.getMasterUrl().toString()).newBuilder()
+				.addPathSegments("api/v1/namespaces").addPathSegment(namespace).addPathSegment("pods")
+				.addQueryParameter("labelSelector", LABEL_PROXY_ID + "=" + proxy.getId())
+				.build();
+		RequestBody body = RequestBody.create(MediaType.parse("application/json"), DELETE_OPTIONS_BACKGROUND);
+		
+		OkHttpClient httpClient = ((HttpClientAware) kubeClient).getHttpClient();
+		Request request = new Request.Builder().url(url).delete(body).build();
+		try (Response response = httpClient.newCall(request).execute()) {
+			if (!response.isSuccessful()) throw new IOException("Failed to delete pods of proxy " + proxy.getId() + ": HTTP " + response.code());
+			// The response lists the deleted pods.
+			JsonNode items = new ObjectMapper().readTree(response.body().byteStream()).get("items");
+			return items != null && items.size() > 0;
+		}
+	}
+	
+	/**
+	 * Services do not support collection deletes on all API server versions, so they are listed by label and deleted one by one.
+	 * 
+	 * @return True if the selector matched at least one service.
+	 */
+	private boolean deleteServices(String namespace, Proxy proxy) {
+		List<Service> services = kubeClient.services().inNamespace(namespace).withLabel(LABEL_PROXY_ID, proxy.getId()).list().getItems();
+		for (Service service: services) kubeClient.resource(service).delete();
+		return !services.isEmpty();
 	}
 	
 	@Override
-	public BiConsumer<OutputStream, OutputStream> getOutputAttacher(Proxy proxy) {
+	public IContainerOutputPoller getOutputPoller(Proxy proxy) {
 		if (proxy.getContainers().isEmpty()) return null;
-		return (stdOut, stdErr) -> {
-			try {
-				Container container = proxy.getContainers().get(0);
-				String kubeNamespace = container.getParameters().get(PARAM_NAMESPACE).toString();
-				if (kubeNamespace == null) {
-					kubeNamespace = getProperty(PROPERTY_NAMESPACE, DEFAULT_NAMESPACE);
+		if (!(kubeClient instanceof HttpClientAware)) return null;
+		return new KubernetesOutputPoller();
+	}
+
+	/**
+	 * Reads pod output in chunks, by requesting the log lines since the last poll, for every container in the pod.
+	 * A failure to read one container does not prevent reading the other containers of the pod.
+	 * <p>
+	 * Each proxy container has its own pair of log streams, but additional containers in its pod (e.g. sidecars added
+	 * by a pod patch) do not: the log storage only knows the proxy's containers, while the pod's containers are
+	 * only known once the pod exists. Their output is therefore forwarded to the stdOut stream of the proxy container,
+	 * prefixed with the container name. Kubernetes does not distinguish standard output and standard error,
+	 * so all output goes to stdOut.
+	 * </p>
+	 * <p>
+	 * The log API is called directly because the client DSL does not expose the 'timestamps' parameter,
+	 * which is needed to skip lines that were already forwarded ('sinceTime' has a granularity of one second).
+	 * All requests go through the client's shared HTTP connection pool.
+	 * </p>
+	 */
+	private class KubernetesOutputPoller implements IContainerOutputPoller {
+		
+		private final Map<String, OutputPosition> positions = new ConcurrentHashMap<>();
+		private final Map<String, List<String>> podContainerNames = new ConcurrentHashMap<>();
+		
+		@Override
+		public void poll(Container container, OutputStream stdOut, OutputStream stdErr) throws IOException {
+			Object namespace = container.getParameters().get(PARAM_NAMESPACE);
+			if (namespace == null) namespace = getProperty(PROPERTY_NAMESPACE, DEFAULT_NAMESPACE);
+			String podName = "sp-pod-" + container.getId();
+			String mainContainerName = "sp-container-" + container.getId();
+			
+			IOException failure = null;
+			for (String containerName: getContainerNames(namespace.toString(), podName)) {
+				String prefix = containerName.equals(mainContainerName) ? "" : "[" + containerName + "] ";
+				try {
+					pollContainer(namespace.toString(), podName, containerName, prefix, stdOut);
+				} catch (IOException | RuntimeException e) {
+					if (failure == null) failure = new IOException("Failed to read output of pod " + podName, e);
+					else failure.addSuppressed(e);
+				}
+			}
+			stdOut.flush();
+			if (failure != null) throw failure;
+		}
+		
+		private List<String> getContainerNames(String namespace, String podName) throws IOException {
+			List<String> names = podContainerNames.get(podName);
+			if (names == null) {
+				Pod pod = kubeClient.pods().inNamespace(namespace).withName(podName).get();
+				if (pod == null) throw new IOException("Pod not found: " + podName);
+				names = pod.getSpec().getContainers().stream().map(c -> c.getName()).collect(Collectors.toList());
+				podContainerNames.put(podName, names);
+			}
+			return names;
+		}
+		
+		private void pollContainer(String namespace, String podName, String containerName, String prefix, OutputStream out) throws IOException {
+			String key = podName + "/" + containerName;
+			OutputPosition position = positions.computeIfAbsent(key, k -> new OutputPosition());
+			Instant lastTimestamp = position.getTimestamp();
+			
+			HttpUrl.Builder url = HttpUrl.parse(kubeClient.getMasterUrl().toString()).newBuilder()
+					.addPathSegments("api/v1/namespaces").addPathSegment(namespace)
+					.addPathSegment("pods").addPathSegment(podName).addPathSegment("log")
+					.addQueryParameter("container", containerName)
+					.addQueryParameter("timestamps", "true");
+			if (lastTimestamp != null) url.addQueryParameter("sinceTime", lastTimestamp.truncatedTo(ChronoUnit.SECONDS).toString());
+			
+			OkHttpClient httpClient = ((HttpClientAware) kubeClient).getHttpClient();
+			Request request = new Request.Builder().url(url.build()).get().build();
+			try (Response response = httpClient.newCall(request).execute()) {
+				if (!response.isSuccessful()) throw new IOException("Failed to read log of " + key + ": HTTP " + response.code());
+				BufferedReader reader = new BufferedReader(new InputStreamReader(response.body().byteStream(), StandardCharsets.UTF_8));
+				position.startRead();
+				String line = null;
+				while ((line = reader.readLine()) != null) {
+					int separator = line.indexOf(' ');
+					if (separator < 0) continue;
+					Instant timestamp;
+					try {
+						timestamp = Instant.parse(line.substring(0, separator));
+					} catch (DateTimeParseException e) {
+						continue;
+					}
+					// Progress is remembered per line, so that a dropped connection resumes from here on the next poll.
+					if (!position.accept(timestamp)) continue;
+					out.write((prefix + line.substring(separator + 1) + "\n").getBytes(StandardCharsets.UTF_8));
 				}
-				LogWatch watcher = kubeClient.pods().inNamespace(kubeNamespace).withName("sp-pod-" + container.getId()).watchLog();
-				IOUtils.copy(watcher.getOutput(), stdOut);
-			} catch (IOException e) {
-				log.error("Error while attaching to container output", e);
 			}
-		};
+		}
 	}
 
 	@Override
@@ -20,6 +20,8 @@
  */
 package eu.openanalytics.containerproxy.backend.strategy;
 
+import java.util.concurrent.CompletableFuture;
+
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 
 /**
@@ -29,5 +31,16 @@ import eu.openanalytics.containerproxy.model.runtime.Proxy;
 public interface IProxyTestStrategy {
 
 	public boolean testProxy(Proxy proxy);
+	
+	/**
+	 * Test the given proxy without blocking the calling thread.
+	 * The default implementation simply calls {@link #testProxy(Proxy)}.
+	 * 
+	 * @param proxy The proxy to test.
+	 * @return A future that completes with true if the proxy is responsive.
+	 */
+	public default CompletableFuture<Boolean> testProxyAsync(Proxy proxy) {
+		return CompletableFuture.completedFuture(testProxy(proxy));
+	}
 
 }
@@ -20,12 +20,14 @@
  */
 package eu.openanalytics.containerproxy.backend.strategy.impl;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
 import eu.openanalytics.containerproxy.backend.strategy.IProxyTestStrategy;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 
 @Component
+@ConditionalOnProperty(name="proxy.container-test-strategy", havingValue="default", matchIfMissing=true)
 public class DefaultProxyTestStrategy implements IProxyTestStrategy {
 
 	@Override
@@ -0,0 +1,240 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.backend.strategy.impl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import eu.openanalytics.containerproxy.backend.strategy.IProxyTestStrategy;
+import eu.openanalytics.containerproxy.model.runtime.Proxy;
+import eu.openanalytics.containerproxy.util.Futures;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Tests a proxy by sending HTTP requests to each of its targets, until all of them respond with an expected status.
+ * This strategy is enabled by setting proxy.container-test-strategy to 'http'.
+ * <p>
+ * The first probe is sent immediately. Failed probes are retried with an exponentially increasing interval,
+ * until the total wait time has passed. Requests are sent asynchronously, so that probing many targets
+ * does not occupy a thread per target.
+ * </p>
+ * <p>
+ * The following settings can be set per spec:
+ * <ul>
+ * <li>readiness-path: the path to probe, relative to the target (default: /)</li>
+ * <li>readiness-status: a comma-separated list of accepted HTTP status codes (default: any 2xx or 3xx status)</li>
+ * </ul>
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name="proxy.container-test-strategy", havingValue="http")
+public class HttpProxyTestStrategy implements IProxyTestStrategy {
+
+	private static final String PROPERTY_WAIT_TIME = "proxy.container-wait-time";
+	private static final String PROPERTY_INITIAL_INTERVAL = "proxy.container-probe-initial-interval";
+	private static final String PROPERTY_MAX_INTERVAL = "proxy.container-probe-max-interval";
+	private static final String PROPERTY_PROBE_TIMEOUT = "proxy.container-probe-timeout";
+	
+	private static final String SETTING_PATH = "readiness-path";
+	private static final String SETTING_STATUS = "readiness-status";
+	
+	private Logger log = LogManager.getLogger(HttpProxyTestStrategy.class);
+	
+	@Inject
+	private Environment environment;
+	
+	private OkHttpClient client;
+	private ScheduledExecutorService scheduler;
+	
+	private long waitTime;
+	private long initialInterval;
+	private long maxInterval;
+	
+	@PostConstruct
+	public void init() {
+		waitTime = environment.getProperty(PROPERTY_WAIT_TIME, Long.class, 20000L);
+		initialInterval = environment.getProperty(PROPERTY_INITIAL_INTERVAL, Long.class, 100L);
+		maxInterval = environment.getProperty(PROPERTY_MAX_INTERVAL, Long.class, 2000L);
+		long probeTimeout = environment.getProperty(PROPERTY_PROBE_TIMEOUT, Long.class, 2000L);
+		
+		client = new OkHttpClient.Builder()
+				.connectTimeout(probeTimeout, TimeUnit.MILLISECONDS)
+				.readTimeout(probeTimeout, TimeUnit.MILLISECONDS)
+				.followRedirects(false)
+				.retryOnConnectionFailure(false)
+				.build();
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "ProxyTestStrategy");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		scheduler.shutdownNow();
+		client.dispatcher().executorService().shutdown();
+	}
+	
+	@Override
+	public boolean testProxy(Proxy proxy) {
+		CompletableFuture<Boolean> result = testProxyAsync(proxy);
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			result.cancel(true);
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			log.warn(String.format("Error while testing proxy %s", proxy.getId()), e.getCause());
+			return false;
+		}
+	}
+	
+	@Override
+	public CompletableFuture<Boolean> testProxyAsync(Proxy proxy) {
+		if (proxy.getTargets().isEmpty()) return CompletableFuture.completedFuture(true);
+		
+		Map<String, String> settings = proxy.getSpec().getSettings();
+		String path = (settings == null) ? null : settings.get(SETTING_PATH);
+		
+		// Each probe gives up by itself once the deadline has passed.
+		long deadline = System.currentTimeMillis() + waitTime;
+		List<CompletableFuture<Boolean>> probes;
+		try {
+			Set<Integer> statuses = parseStatuses((settings == null) ? null : settings.get(SETTING_STATUS));
+			probes = proxy.getTargets().values().stream()
+					.map(target -> probe(getProbeURL(target, path), statuses, deadline))
+					.collect(Collectors.toList());
+		} catch (IllegalArgumentException e) {
+			// E.g. an invalid setting or target URL: report it through the future, like any other probe failure.
+			return Futures.failed(e);
+		}
+		
+		// Fail as soon as one target fails, succeed once all targets succeeded.
+		CompletableFuture<Boolean> result = new CompletableFuture<>();
+		for (CompletableFuture<Boolean> probe: probes) {
+			probe.whenComplete((ok, t) -> {
+				if (t != null || !ok) result.complete(false);
+			});
+		}
+		CompletableFuture.allOf(probes.toArray(new CompletableFuture[probes.size()])).thenRun(() -> result.complete(true));
+		result.whenComplete((r, t) -> probes.forEach(p -> p.cancel(true)));
+		return result;
+	}
+	
+	private CompletableFuture<Boolean> probe(String url, Set<Integer> statuses, long deadline) {
+		CompletableFuture<Boolean> result = new CompletableFuture<>();
+		Request request = new Request.Builder().url(url).get().build();
+		// Only the call of the current attempt can be in flight: cancel it when the probe completes.
+		AtomicReference<Call> currentCall = new AtomicReference<>();
+		result.whenComplete((r, t) -> {
+			Call call = currentCall.get();
+			if (call != null) call.cancel();
+		});
+		attempt(result, currentCall, request, statuses, initialInterval, deadline);
+		return result;
+	}
+	
+	private void attempt(CompletableFuture<Boolean> result, AtomicReference<Call> currentCall, Request request, Set<Integer> statuses, long interval, long deadline) {
+		if (result.isDone()) return;
+		Call call = client.newCall(request);
+		currentCall.set(call);
+		// The probe may have completed before the call was set.
+		if (result.isDone()) return;
+		call.enqueue(new Callback() {
+			@Override
+			public void onResponse(Call call, Response response) {
+				try (Response r = response) {
+					if (isAccepted(statuses, r.code())) result.complete(true);
+					else retry(result, currentCall, request, statuses, interval, deadline);
+				}
+			}
+			@Override
+			public void onFailure(Call call, IOException e) {
+				retry(result, currentCall, request, statuses, interval, deadline);
+			}
+		});
+	}
+	
+	private void retry(CompletableFuture<Boolean> result, AtomicReference<Call> currentCall, Request request, Set<Integer> statuses, long interval, long deadline) {
+		if (result.isDone()) return;
+		if (System.currentTimeMillis() + interval >= deadline) {
+			result.complete(false);
+			return;
+		}
+		long nextInterval = Math.min(interval * 2, maxInterval);
+		scheduler.schedule(() -> attempt(result, currentCall, request, statuses, nextInterval, deadline), interval, TimeUnit.MILLISECONDS);
+	}
+	
+	private static String getProbeURL(URI target, String path) {
+		String base = target.toString();
+		if (base.endsWith("/")) base = base.substring(0, base.length() - 1);
+		if (path == null || path.isEmpty()) path = "/";
+		if (!path.startsWith("/")) path = "/" + path;
+		return base + path;
+	}
+	
+	private static Set<Integer> parseStatuses(String value) {
+		Set<Integer> statuses = new HashSet<>();
+		if (value != null) {
+			for (String status: value.split(",")) {
+				status = status.trim();
+				if (status.isEmpty()) continue;
+				if (!status.matches("[1-5][0-9][0-9]")) {
+					throw new IllegalArgumentException(String.format("Invalid %s: '%s' is not an HTTP status code", SETTING_STATUS, status));
+				}
+				statuses.add(Integer.valueOf(status));
+			}
+		}
+		return statuses;
+	}
+	
+	private static boolean isAccepted(Set<Integer> statuses, int code) {
+		if (statuses.isEmpty()) return code >= 200 && code < 400;
+		return statuses.contains(code);
+	}
+}
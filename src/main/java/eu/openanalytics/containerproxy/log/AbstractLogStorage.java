@@ -21,18 +21,22 @@
 package eu.openanalytics.containerproxy.log;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 
 import javax.inject.Inject;
 
 import org.springframework.core.env.Environment;
 
+import eu.openanalytics.containerproxy.model.runtime.Container;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 
 public abstract class AbstractLogStorage implements ILogStorage {
 
 	private static final String PARAM_LOG_PATHS = "log_paths";
+	private static final int TAIL_CHUNK_SIZE = 64 * 1024;
 	
 	@Inject
 	protected Environment environment;
@@ -54,12 +58,44 @@ public abstract class AbstractLogStorage implements ILogStorage {
 		String[] paths = (String[]) proxy.getContainers().get(0).getParameters().get(PARAM_LOG_PATHS);
 		if (paths == null) {
 			String timestamp = new SimpleDateFormat("yyyyMMdd").format(new Date());
-			paths = new String[] {
-					String.format("%s/%s_%s_%s_stdout.log", containerLogPath, proxy.getSpec().getId(), proxy.getId(), timestamp),
-					String.format("%s/%s_%s_%s_stderr.log", containerLogPath, proxy.getSpec().getId(), proxy.getId(), timestamp)
-			};
+			List<Container> containers = proxy.getContainers();
+			paths = new String[containers.size() * 2];
+			for (int i = 0; i < containers.size(); i++) {
+				// The first container keeps the original naming, additional containers include their index.
+				String prefix = (i == 0) ?
+						String.format("%s/%s_%s_%s", containerLogPath, proxy.getSpec().getId(), proxy.getId(), timestamp) :
+						String.format("%s/%s_%s_%d_%s", containerLogPath, proxy.getSpec().getId(), proxy.getId(), i, timestamp);
+				paths[2 * i] = prefix + "_stdout.log";
+				paths[2 * i + 1] = prefix + "_stderr.log";
+			}
 			proxy.getContainers().get(0).getParameters().put(PARAM_LOG_PATHS, paths);
 		}
 		return paths;
 	}
+	
+	@Override
+	public long findTailOffset(String path, int lines) throws IOException {
+		long size = getLogSize(path);
+		if (lines <= 0) return size;
+		
+		// Scan backwards, chunk by chunk, for line breaks. A line break at the very end of the log does not start a new line.
+		int remaining = lines;
+		long end = size;
+		while (end > 0) {
+			long start = Math.max(0, end - TAIL_CHUNK_SIZE);
+			ByteBuffer chunk = readChunk(path, start, (int) (end - start));
+			for (int i = chunk.limit() - 1; i >= 0; i--) {
+				if (chunk.get(i) == '\n' && start + i != size - 1) {
+					if (--remaining == 0) return start + i + 1;
+				}
+			}
+			end = start;
+		}
+		return 0;
+	}
+	
+	/**
+	 * Read a chunk of a log, for scanning by {@link #findTailOffset(String, int)}.
+	 */
+	protected abstract ByteBuffer readChunk(String path, long offset, int length) throws IOException;
 }
@@ -20,29 +20,158 @@
  */
 package eu.openanalytics.containerproxy.log;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 
+/**
+ * Stores container logs in files on the local filesystem.
+ * <p>
+ * Writes are buffered, and log files can be rotated by size (<i>proxy.container-log-max-size</i>) and/or
+ * age (<i>proxy.container-log-rotate-interval</i>). Rotated segments are gzipped in the background
+ * (<i>proxy.container-log-compress</i>) and only the most recent segments of each log are kept
+ * (<i>proxy.container-log-max-segments</i>).
+ * </p>
+ */
 public class FileLogStorage extends AbstractLogStorage {
 
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	private long maxSize;
+	private long rotateInterval;
+	private boolean compress;
+	private int maxSegments;
+	
+	private ExecutorService rotationExecutor;
+	
+	private Logger log = LogManager.getLogger(FileLogStorage.class);
+	
 	@Override
 	public void initialize() throws IOException {
 		super.initialize();
 		Files.createDirectories(Paths.get(containerLogPath));
+		
+		maxSize = Long.parseLong(environment.getProperty("proxy.container-log-max-size", "0"));
+		rotateInterval = Long.parseLong(environment.getProperty("proxy.container-log-rotate-interval", "0"));
+		compress = Boolean.valueOf(environment.getProperty("proxy.container-log-compress", "true"));
+		maxSegments = Integer.parseInt(environment.getProperty("proxy.container-log-max-segments", "10"));
+		
+		rotationExecutor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "LogSegmentCompressor");
+			t.setDaemon(true);
+			return t;
+		});
 	}
 	
 	@Override
 	public OutputStream[] createOutputStreams(Proxy proxy) throws IOException {
 		String[] paths = getLogs(proxy);
-		return new OutputStream[] {
-				new FileOutputStream(paths[0]),
-				new FileOutputStream(paths[1])
-		};
+		OutputStream[] streams = new OutputStream[paths.length];
+		for (int i = 0; i < streams.length; i++) {
+			streams[i] = new RotatingFileOutputStream(Paths.get(paths[i]), BUFFER_SIZE, maxSize, rotateInterval, this::onRotate);
+		}
+		return streams;
+	}
+	
+	@Override
+	public long getLogSize(String path) throws IOException {
+		Path logPath = Paths.get(path);
+		return Files.exists(logPath) ? Files.size(logPath) : 0;
+	}
+	
+	@Override
+	public void writeLog(String path, long offset, long length, OutputStream out) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			WritableByteChannel target = Channels.newChannel(out);
+			long position = offset;
+			long end = Math.min(offset + length, channel.size());
+			while (position < end) {
+				long transferred = channel.transferTo(position, end - position, target);
+				if (transferred <= 0) break;
+				position += transferred;
+			}
+		}
+	}
+	
+	@Override
+	protected ByteBuffer readChunk(String path, long offset, int length) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			return channel.map(MapMode.READ_ONLY, offset, length);
+		}
+	}
+	
+	private void onRotate(Path livePath, Path segmentPath) {
+		rotationExecutor.submit(() -> {
+			try {
+				if (compress) compress(segmentPath);
+				applyRetention(livePath);
+			} catch (Exception e) {
+				log.error("Failed to process rotated log segment " + segmentPath, e);
+			}
+		});
+	}
+	
+	private void compress(Path segmentPath) throws IOException {
+		Path gzPath = segmentPath.resolveSibling(segmentPath.getFileName() + ".gz");
+		try (InputStream in = Files.newInputStream(segmentPath); OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzPath), BUFFER_SIZE)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int len = 0;
+			while ((len = in.read(buffer)) > 0) {
+				out.write(buffer, 0, len);
+			}
+		}
+		Files.delete(segmentPath);
+	}
+	
+	private void applyRetention(Path livePath) throws IOException {
+		if (maxSegments < 0) return;
+		
+		// Segments of 'app_stdout.log' are named 'app_stdout.<n>.log', optionally followed by '.gz'.
+		String fileName = livePath.getFileName().toString();
+		int extIndex = fileName.lastIndexOf('.');
+		String baseName = (extIndex > 0) ? fileName.substring(0, extIndex) : fileName;
+		String extension = (extIndex > 0) ? fileName.substring(extIndex) : "";
+		Pattern segmentPattern = Pattern.compile(Pattern.quote(baseName) + "\\.(\\d+)" + Pattern.quote(extension) + "(\\.gz)?");
+		
+		List<Path> segments = new ArrayList<>();
+		try (DirectoryStream<Path> dir = Files.newDirectoryStream(livePath.getParent(), p -> segmentPattern.matcher(p.getFileName().toString()).matches())) {
+			dir.forEach(segments::add);
+		}
+		if (segments.size() <= maxSegments) return;
+		
+		segments.sort(Comparator.comparingLong(p -> getSegmentNumber(segmentPattern, p)));
+		for (Path segment: segments.subList(0, segments.size() - maxSegments)) {
+			if (log.isDebugEnabled()) log.debug("Deleting expired log segment " + segment);
+			Files.deleteIfExists(segment);
+		}
+	}
+	
+	private long getSegmentNumber(Pattern segmentPattern, Path segment) {
+		Matcher matcher = segmentPattern.matcher(segment.getFileName().toString());
+		return matcher.matches() ? Long.parseLong(matcher.group(1)) : 0;
 	}
 	
 }
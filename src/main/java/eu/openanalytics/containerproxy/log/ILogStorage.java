@@ -33,6 +33,40 @@ public interface ILogStorage {
 	
 	public OutputStream[] createOutputStreams(Proxy proxy) throws IOException;
 	
+	/**
+	 * Get the paths of the logs of a proxy: the standard output and standard error
+	 * of the first container, followed by those of each additional container.
+	 * 
+	 * @param proxy The proxy whose logs to locate.
+	 * @return The paths of the logs.
+	 */
 	public String[] getLogs(Proxy proxy) throws IOException;
+	
+	/**
+	 * Get the current size of a log, in bytes.
+	 * 
+	 * @param path The path of the log, as returned by {@link #getLogs(Proxy)}.
+	 * @return The size of the log, or 0 if it does not exist (yet).
+	 */
+	public long getLogSize(String path) throws IOException;
+	
+	/**
+	 * Find the offset at which the last lines of a log start.
+	 * 
+	 * @param path The path of the log, as returned by {@link #getLogs(Proxy)}.
+	 * @param lines The number of lines to include.
+	 * @return The offset of the first byte of the last lines.
+	 */
+	public long findTailOffset(String path, int lines) throws IOException;
+	
+	/**
+	 * Copy a range of a log to an output stream, without loading the whole range into memory.
+	 * 
+	 * @param path The path of the log, as returned by {@link #getLogs(Proxy)}.
+	 * @param offset The offset of the first byte to copy.
+	 * @param length The number of bytes to copy.
+	 * @param out The stream to copy to.
+	 */
+	public void writeLog(String path, long offset, long length, OutputStream out) throws IOException;
 
 }
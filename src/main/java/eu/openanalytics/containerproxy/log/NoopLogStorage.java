@@ -21,6 +21,7 @@
 package eu.openanalytics.containerproxy.log;
 
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 
@@ -40,5 +41,20 @@ public class NoopLogStorage extends AbstractLogStorage {
 	public String[] getLogs(Proxy proxy) {
 		return null;
 	}
+	
+	@Override
+	public long getLogSize(String path) {
+		return 0;
+	}
+	
+	@Override
+	public void writeLog(String path, long offset, long length, OutputStream out) {
+		// Do nothing.
+	}
+	
+	@Override
+	protected ByteBuffer readChunk(String path, long offset, int length) {
+		return ByteBuffer.allocate(0);
+	}
 
 }
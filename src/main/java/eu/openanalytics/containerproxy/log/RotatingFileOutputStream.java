@@ -0,0 +1,134 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.log;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiConsumer;
+
+/**
+ * A buffered output stream that writes to a log file, and rotates it when it exceeds a maximum size or age.
+ * <p>
+ * The live file always keeps its original path. On rotation, it is renamed to a numbered segment
+ * (e.g. <i>app_stdout.log</i> becomes <i>app_stdout.1.log</i>) and a new live file is opened.
+ * The rotation listener is then notified, so that it can e.g. compress the segment in the background.
+ * </p>
+ */
+public class RotatingFileOutputStream extends OutputStream {
+
+	private final Path path;
+	private final int bufferSize;
+	private final long maxSize;
+	private final long maxAge;
+	private final BiConsumer<Path, Path> rotationListener;
+	
+	private OutputStream out;
+	private long size;
+	private long created;
+	private int segment;
+	
+	/**
+	 * @param path The path of the live log file.
+	 * @param bufferSize The size of the write buffer, in bytes.
+	 * @param maxSize The size in bytes after which the file is rotated, or 0 to disable size-based rotation.
+	 * @param maxAge The age in ms after which the file is rotated, or 0 to disable time-based rotation.
+	 * @param rotationListener Called with the live path and the segment path after each rotation. May be null.
+	 */
+	public RotatingFileOutputStream(Path path, int bufferSize, long maxSize, long maxAge, BiConsumer<Path, Path> rotationListener) throws IOException {
+		this.path = path;
+		this.bufferSize = bufferSize;
+		this.maxSize = maxSize;
+		this.maxAge = maxAge;
+		this.rotationListener = rotationListener;
+		open();
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+	
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+		if (out == null) throw new IOException("Stream is closed: " + path);
+		if (len == 0) return;
+		if (size > 0 && maxAge > 0 && System.currentTimeMillis() - created >= maxAge) rotate();
+		
+		out.write(b, off, len);
+		size += len;
+		
+		if (maxSize > 0 && size >= maxSize) rotate();
+	}
+	
+	@Override
+	public synchronized void flush() throws IOException {
+		if (out != null) out.flush();
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		if (out == null) return;
+		out.close();
+		out = null;
+	}
+	
+	/**
+	 * Get the path of the segment with the given sequence number, for the given live log file.
+	 */
+	public static Path getSegmentPath(Path path, int segment) {
+		String fileName = path.getFileName().toString();
+		int extIndex = fileName.lastIndexOf('.');
+		if (extIndex > 0) {
+			return path.resolveSibling(fileName.substring(0, extIndex) + "." + segment + fileName.substring(extIndex));
+		} else {
+			return path.resolveSibling(fileName + "." + segment);
+		}
+	}
+	
+	private void open() throws IOException {
+		out = new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND), bufferSize);
+		size = Files.size(path);
+		created = System.currentTimeMillis();
+	}
+	
+	private void rotate() throws IOException {
+		out.close();
+		
+		Path segmentPath = null;
+		do {
+			segment++;
+			segmentPath = getSegmentPath(path, segment);
+		} while (Files.exists(segmentPath) || Files.exists(segmentPath.resolveSibling(segmentPath.getFileName() + ".gz")));
+		
+		try {
+			Files.move(path, segmentPath, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			// If the move failed, keep appending to the live file.
+			open();
+		}
+		if (rotationListener != null) rotationListener.accept(path, segmentPath);
+	}
+}
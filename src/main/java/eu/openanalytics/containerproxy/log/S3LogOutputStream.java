@@ -0,0 +1,230 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * An output stream that writes a log file to S3, without ever downloading or re-uploading previously written data.
+ * <p>
+ * As long as the object is smaller than one part, its content is kept in memory and written using a regular
+ * upload whenever {@link #flushIfDue()} is called. Once the object grows beyond one part, it is written using a
+ * multipart upload of fixed-size parts, which is completed when the stream is closed or rolled over.
+ * </p>
+ * <p>
+ * When the object exceeds the maximum size or age, it is completed and writing continues in a new object,
+ * whose key is the original key with a sequence number inserted before the extension (e.g. <i>app_stdout.1.log</i>).
+ * </p>
+ * <p>
+ * Note that {@link #flush()} does nothing: S3 parts have a minimum size, so data is only persisted by
+ * {@link #flushIfDue()}, by a full part, or by {@link #close()}.
+ * </p>
+ */
+public class S3LogOutputStream extends OutputStream {
+
+	private final AmazonS3 s3;
+	private final String bucketName;
+	private final String baseKey;
+	private final int partSize;
+	private final long maxObjectSize;
+	private final long maxObjectAge;
+	private final boolean enableSSE;
+	
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	private final List<PartETag> partETags = new ArrayList<>();
+	
+	private int segment;
+	private String currentKey;
+	private String uploadId;
+	private long objectSize;
+	private long objectCreated;
+	private boolean dirty;
+	private boolean closed;
+	
+	private Logger log = LogManager.getLogger(S3LogOutputStream.class);
+	
+	public S3LogOutputStream(AmazonS3 s3, String bucketName, String key, int partSize, long maxObjectSize, long maxObjectAge, boolean enableSSE) {
+		this.s3 = s3;
+		this.bucketName = bucketName;
+		this.baseKey = key;
+		this.partSize = partSize;
+		this.maxObjectSize = maxObjectSize;
+		this.maxObjectAge = maxObjectAge;
+		this.enableSSE = enableSSE;
+		this.currentKey = key;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+	
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+		if (closed) throw new IOException("Stream is closed: " + currentKey);
+		if (len == 0) return;
+		
+		if (objectSize == 0) objectCreated = System.currentTimeMillis();
+		buffer.write(b, off, len);
+		objectSize += len;
+		dirty = true;
+		
+		if (buffer.size() >= partSize) uploadPart();
+		if (objectSize >= maxObjectSize) rollover();
+	}
+	
+	@Override
+	public void flush() {
+		// Do nothing: see class documentation.
+	}
+	
+	/**
+	 * Persist data that was written since the previous call, if the object is still small enough
+	 * to be written in a single upload, and roll over to a new object if the current one is too old.
+	 */
+	public synchronized void flushIfDue() throws IOException {
+		if (closed || objectSize == 0) return;
+		if (System.currentTimeMillis() - objectCreated >= maxObjectAge) {
+			rollover();
+		} else if (dirty && uploadId == null) {
+			putObject();
+		}
+	}
+	
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+	
+	/**
+	 * @return The key of the object that is currently being written, which differs from the original key after a rollover.
+	 */
+	public synchronized String getCurrentKey() {
+		return currentKey;
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		completeObject();
+	}
+	
+	private void rollover() throws IOException {
+		completeObject();
+		segment++;
+		int extIndex = baseKey.lastIndexOf('.');
+		if (extIndex > baseKey.lastIndexOf('/')) {
+			currentKey = baseKey.substring(0, extIndex) + "." + segment + baseKey.substring(extIndex);
+		} else {
+			currentKey = baseKey + "." + segment;
+		}
+	}
+	
+	private void completeObject() throws IOException {
+		try {
+			if (uploadId == null) {
+				if (dirty) putObject();
+			} else {
+				if (buffer.size() > 0) uploadPart();
+				s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, currentKey, uploadId, partETags));
+				if (log.isDebugEnabled()) log.debug(String.format("Completed log file on S3 [size: %d] [path: %s]", objectSize, currentKey));
+			}
+		} catch (AmazonClientException e) {
+			abortUpload();
+			throw new IOException("Failed to complete log file on S3: " + currentKey, e);
+		} finally {
+			uploadId = null;
+			partETags.clear();
+			buffer.reset();
+			objectSize = 0;
+			dirty = false;
+		}
+	}
+	
+	private void putObject() throws IOException {
+		byte[] bytes = buffer.toByteArray();
+		ObjectMetadata metadata = createMetadata();
+		metadata.setContentLength(bytes.length);
+		if (log.isDebugEnabled()) log.debug(String.format("Writing log file to S3 [size: %d] [path: %s]", bytes.length, currentKey));
+		try {
+			s3.putObject(new PutObjectRequest(bucketName, currentKey, new ByteArrayInputStream(bytes), metadata));
+		} catch (AmazonClientException e) {
+			throw new IOException("Failed to write log file to S3: " + currentKey, e);
+		}
+		dirty = false;
+	}
+	
+	private void uploadPart() throws IOException {
+		byte[] bytes = buffer.toByteArray();
+		try {
+			if (uploadId == null) {
+				uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, currentKey, createMetadata())).getUploadId();
+			}
+			UploadPartRequest request = new UploadPartRequest()
+					.withBucketName(bucketName)
+					.withKey(currentKey)
+					.withUploadId(uploadId)
+					.withPartNumber(partETags.size() + 1)
+					.withPartSize(bytes.length)
+					.withInputStream(new ByteArrayInputStream(bytes));
+			if (log.isDebugEnabled()) log.debug(String.format("Writing log part to S3 [part: %d] [size: %d] [path: %s]", request.getPartNumber(), bytes.length, currentKey));
+			partETags.add(s3.uploadPart(request).getPartETag());
+		} catch (AmazonClientException e) {
+			throw new IOException("Failed to write log part to S3: " + currentKey, e);
+		}
+		buffer.reset();
+		dirty = false;
+	}
+	
+	private void abortUpload() {
+		if (uploadId == null) return;
+		try {
+			s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, currentKey, uploadId));
+		} catch (AmazonClientException e) {
+			log.warn("Failed to abort multipart upload of " + currentKey, e);
+		}
+	}
+	
+	private ObjectMetadata createMetadata() {
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentType("text/plain");
+		if (enableSSE) metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+		return metadata;
+	}
+}
@@ -20,40 +20,58 @@
  */
 package eu.openanalytics.containerproxy.log;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.bouncycastle.util.Arrays;
 
-import com.amazonaws.AmazonClientException;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
-import com.amazonaws.services.s3.transfer.TransferManager;
-import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 
-//TODO Optimize flushing behaviour
+/**
+ * Stores container logs on S3 (or an S3-compatible server, see <i>proxy.container-log-s3-endpoint</i>).
+ * Each log is written by a {@link S3LogOutputStream}, and a background thread periodically persists
+ * small logs and rolls over logs that have exceeded their maximum age.
+ * <p>
+ * Reads of a log that is still being written go to its current object, i.e. the object it was rolled over to, if any.
+ * Previous objects are not included. Output in an unfinished multipart upload (i.e. of an object larger than one part)
+ * cannot be read until the object is completed: until then, reads return the object as it was last persisted.
+ * </p>
+ */
 public class S3LogStorage extends AbstractLogStorage {
 
+	private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+	
 	private AmazonS3 s3;
-	private TransferManager transferMgr;
 	
 	private String bucketName;
 	private String bucketPath;
 	private boolean enableSSE;
+	
+	private int partSize;
+	private long maxObjectSize;
+	private long maxObjectAge;
+	
+	// The open streams, by their original key.
+	private Map<String, S3LogOutputStream> openStreams = new ConcurrentHashMap<>();
+	private ScheduledExecutorService flushExecutor;
 
 	private Logger log = LogManager.getLogger(S3LogStorage.class);
 	
@@ -66,6 +84,12 @@ public class S3LogStorage extends AbstractLogStorage {
 		String endpoint = environment.getProperty("proxy.container-log-s3-endpoint", "https://s3-eu-west-1.amazonaws.com");
 		enableSSE = Boolean.valueOf(environment.getProperty("proxy.container-log-s3-sse", "false"));
 		
+		// S3 requires all parts except the last one to be at least 5MB.
+		partSize = Math.max(MIN_PART_SIZE, Integer.parseInt(environment.getProperty("proxy.container-log-s3-part-size", String.valueOf(MIN_PART_SIZE))));
+		maxObjectSize = Long.parseLong(environment.getProperty("proxy.container-log-s3-max-object-size", String.valueOf(1024L * 1024 * 1024)));
+		maxObjectAge = Long.parseLong(environment.getProperty("proxy.container-log-s3-max-object-age", String.valueOf(TimeUnit.DAYS.toMillis(1))));
+		long flushInterval = Long.parseLong(environment.getProperty("proxy.container-log-s3-flush-interval", "60000"));
+		
 		String subPath = containerLogPath.substring("s3://".length()).trim();
 		if (subPath.endsWith("/")) subPath = subPath.substring(0, subPath.length() - 1);
 		
@@ -83,83 +107,84 @@ public class S3LogStorage extends AbstractLogStorage {
 				.enablePathStyleAccess()
 				.withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(accessKey, accessSecret)))
 				.build();
-		transferMgr = TransferManagerBuilder.standard()
-				.withS3Client(s3)
-				.build();
+		
+		flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "S3LogFlusher");
+			t.setDaemon(true);
+			return t;
+		});
+		flushExecutor.scheduleWithFixedDelay(this::flushStreams, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
 	}
 	
 	@Override
 	public OutputStream[] createOutputStreams(Proxy proxy) throws IOException {
 		String[] paths = getLogs(proxy);
-		OutputStream[] streams = new OutputStream[2];
+		OutputStream[] streams = new OutputStream[paths.length];
 		for (int i = 0; i < streams.length; i++) {
-			String fileName = paths[i].substring(paths[i].lastIndexOf("/") + 1);
-			// TODO kubernetes never flushes. So perform timed flushes, and also flush upon container shutdown
-			streams[i] = new BufferedOutputStream(new S3OutputStream(bucketPath + fileName), 1024*1024);
+			S3LogOutputStream stream = new S3LogOutputStream(s3, bucketName, getKey(paths[i]), partSize, maxObjectSize, maxObjectAge, enableSSE);
+			openStreams.put(getKey(paths[i]), stream);
+			streams[i] = stream;
 		}
 		return streams;
 	}
 	
-	private void doUpload(String key, byte[] bytes) throws IOException {
-		byte[] bytesToUpload = bytes;
-		
-		byte[] originalBytes = getContent(key);
-		if (originalBytes != null) {
-			bytesToUpload = Arrays.copyOf(originalBytes, originalBytes.length + bytes.length);
-			System.arraycopy(bytes, 0, bytesToUpload, originalBytes.length, bytes.length);
-		}
-		
-		ObjectMetadata metadata = new ObjectMetadata();
-		metadata.setContentLength(bytesToUpload.length);
-		if (enableSSE) metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
-		
-		if (log.isDebugEnabled()) log.debug(String.format("Writing log file to S3 [size: %d] [path: %s]", bytesToUpload.length, key));
-		
-		InputStream bufferedInput = new BufferedInputStream(new ByteArrayInputStream(bytesToUpload), 20*1024*1024);
+	@Override
+	public long getLogSize(String path) throws IOException {
 		try {
-			transferMgr.upload(bucketName, key, bufferedInput, metadata).waitForCompletion();
-		} catch (AmazonClientException | InterruptedException e) {
-			throw new IOException(e);
+			return s3.getObjectMetadata(bucketName, getCurrentKey(path)).getContentLength();
+		} catch (AmazonS3Exception e) {
+			if (e.getStatusCode() == 404) return 0;
+			throw new IOException("Failed to get size of log " + path, e);
 		}
 	}
 	
-	private byte[] getContent(String key) throws IOException {
-		if (s3.doesObjectExist(bucketName, key)) {
-			S3Object o = s3.getObject(bucketName, key);
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			try (InputStream in = o.getObjectContent()) {
-				byte[] buffer = new byte[40*1024];
-				int len = 0;
-				while ((len = in.read(buffer)) > 0) {
-					out.write(buffer, 0, len);
-				}
+	@Override
+	public void writeLog(String path, long offset, long length, OutputStream out) throws IOException {
+		if (length <= 0) return;
+		GetObjectRequest request = new GetObjectRequest(bucketName, getCurrentKey(path)).withRange(offset, offset + length - 1);
+		try (S3Object object = s3.getObject(request); InputStream in = object.getObjectContent()) {
+			byte[] buffer = new byte[40*1024];
+			int len = 0;
+			while ((len = in.read(buffer)) > 0) {
+				out.write(buffer, 0, len);
 			}
-			return out.toByteArray();
-		} else {
-			return null;
+		} catch (AmazonS3Exception e) {
+			throw new IOException("Failed to read log " + path, e);
 		}
 	}
 	
-	private class S3OutputStream extends OutputStream {
-		
-		private String s3Key;
-		
-		public S3OutputStream(String s3Key) {
-			this.s3Key = s3Key;
-		}
-		
-		@Override
-		public void write(int b) throws IOException {
-			// Warning: highly inefficient. Always write arrays.
-			byte[] bytesToCopy = new byte[] { (byte) b };
-			write(bytesToCopy, 0, 1);
-		}
-
-		@Override
-		public void write(byte[] b, int off, int len) throws IOException {
-			byte[] bytesToCopy = new byte[len];
-			System.arraycopy(b, off, bytesToCopy, 0, len);
-			doUpload(s3Key, bytesToCopy);
+	@Override
+	protected ByteBuffer readChunk(String path, long offset, int length) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+		writeLog(path, offset, length, out);
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+	
+	private String getKey(String path) {
+		return bucketPath + path.substring(path.lastIndexOf("/") + 1);
+	}
+	
+	/**
+	 * Get the key of the object that a log is currently written to, which differs from its original key after a rollover.
+	 */
+	private String getCurrentKey(String path) {
+		String key = getKey(path);
+		S3LogOutputStream stream = openStreams.get(key);
+		return (stream == null) ? key : stream.getCurrentKey();
+	}
+	
+	private void flushStreams() {
+		for (Map.Entry<String, S3LogOutputStream> entry: openStreams.entrySet()) {
+			S3LogOutputStream stream = entry.getValue();
+			if (stream.isClosed()) {
+				openStreams.remove(entry.getKey(), stream);
+				continue;
+			}
+			try {
+				stream.flushIfDue();
+			} catch (Throwable e) {
+				log.error("Failed to flush container log to S3", e);
+			}
 		}
 	}
 }
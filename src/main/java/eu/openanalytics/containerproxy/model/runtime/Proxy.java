@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import eu.openanalytics.containerproxy.model.spec.ProxySpec;
 
@@ -42,10 +43,12 @@ public class Proxy {
 	
 	private List<Container> containers;
 	private Map<String,URI> targets;
+	private List<ProxyStartupStage> startupStages;
 	
 	public Proxy() {
 		containers = new ArrayList<>();
 		targets = new HashMap<>();
+		startupStages = new CopyOnWriteArrayList<>();
 	}
 	
 	public String getId() {
@@ -103,5 +106,13 @@ public class Proxy {
 	public void setTargets(Map<String, URI> targets) {
 		this.targets = targets;
 	}
+	
+	public List<ProxyStartupStage> getStartupStages() {
+		return startupStages;
+	}
+	
+	public void setStartupStages(List<ProxyStartupStage> startupStages) {
+		this.startupStages = startupStages;
+	}
 
 }
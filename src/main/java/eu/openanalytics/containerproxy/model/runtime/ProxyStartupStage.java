@@ -0,0 +1,64 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.model.runtime;
+
+/**
+ * A single stage in the startup timeline of a proxy, e.g. the creation of a container
+ * or the time spent waiting for it to become ready.
+ */
+public class ProxyStartupStage {
+
+	private String name;
+	private long startTimestamp;
+	private long endTimestamp;
+	
+	public ProxyStartupStage() {
+		// Default constructor.
+	}
+	
+	public ProxyStartupStage(String name, long startTimestamp, long endTimestamp) {
+		this.name = name;
+		this.startTimestamp = startTimestamp;
+		this.endTimestamp = endTimestamp;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	public void setName(String name) {
+		this.name = name;
+	}
+	public long getStartTimestamp() {
+		return startTimestamp;
+	}
+	public void setStartTimestamp(long startTimestamp) {
+		this.startTimestamp = startTimestamp;
+	}
+	public long getEndTimestamp() {
+		return endTimestamp;
+	}
+	public void setEndTimestamp(long endTimestamp) {
+		this.endTimestamp = endTimestamp;
+	}
+	public long getDuration() {
+		return endTimestamp - startTimestamp;
+	}
+}
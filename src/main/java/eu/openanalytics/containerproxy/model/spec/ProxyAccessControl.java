@@ -21,10 +21,16 @@
 package eu.openanalytics.containerproxy.model.spec;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 public class ProxyAccessControl {
 
 	private String[] groups;
+	private Set<String> normalizedGroups = Collections.emptySet();
 
 	public String[] getGroups() {
 		return groups;
@@ -32,6 +38,22 @@ public class ProxyAccessControl {
 
 	public void setGroups(String[] groups) {
 		this.groups = groups;
+		
+		Set<String> normalizedGroups = new HashSet<>();
+		if (groups != null) {
+			for (String group: groups) {
+				if (group != null) normalizedGroups.add(group.toUpperCase());
+			}
+		}
+		this.normalizedGroups = Collections.unmodifiableSet(normalizedGroups);
+	}
+	
+	/**
+	 * @return The upper-cased set of groups that have access, precomputed when the groups are set.
+	 */
+	@JsonIgnore
+	public Set<String> getNormalizedGroups() {
+		return normalizedGroups;
 	}
 	
 	public void copy(ProxyAccessControl target) {
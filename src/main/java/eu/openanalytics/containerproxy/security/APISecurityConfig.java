@@ -89,7 +89,16 @@ public class APISecurityConfig extends ResourceServerConfigurerAdapter {
 	@Bean
 	@ConditionalOnMissingBean(TokenStore.class)
 	public TokenStore jwkTokenStore() {
-		return new JwkTokenStore(environment.getProperty("proxy.oauth2.jwks-url"), jwtAccessTokenConverter());
+		TokenStore jwkTokenStore = new JwkTokenStore(environment.getProperty("proxy.oauth2.jwks-url"), jwtAccessTokenConverter());
+		
+		long cacheSize = Long.parseLong(environment.getProperty("proxy.oauth2.token-cache-size", "10000"));
+		if (cacheSize <= 0) return jwkTokenStore;
+		long cacheMaxTTL = Long.parseLong(environment.getProperty("proxy.oauth2.token-cache-max-ttl", "600000"));
+		long jwksRefreshInterval = Long.parseLong(environment.getProperty("proxy.oauth2.jwks-refresh-interval", "300000"));
+		
+		CachingTokenStore cachingTokenStore = new CachingTokenStore(jwkTokenStore, cacheSize, cacheMaxTTL);
+		if (jwksRefreshInterval > 0) cachingTokenStore.startKeySetRefresh(jwksRefreshInterval);
+		return cachingTokenStore;
 	}
 	
 	@Bean
@@ -0,0 +1,218 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A token store that remembers verified tokens, so that repeated requests with the same token
+ * do not repeat the signature verification of the underlying store.
+ * <p>
+ * Tokens are keyed by their SHA-256 hash, and expire at the token's own expiration time
+ * (but never later than the configured maximum TTL).
+ * </p>
+ * <p>
+ * Optionally, the key set of a JWK-based store can be prefetched and refreshed in the background,
+ * so that no request has to wait for the key set to be downloaded. See {@link #refreshKeySet()}.
+ * </p>
+ */
+public class CachingTokenStore implements TokenStore {
+
+	private final TokenStore delegate;
+	private final Cache<String, VerifiedToken> cache;
+	private final long maxTTL;
+	
+	private ScheduledExecutorService refreshExecutor;
+	
+	private Logger log = LogManager.getLogger(CachingTokenStore.class);
+	
+	public CachingTokenStore(TokenStore delegate, long maxSize, long maxTTL) {
+		this.delegate = delegate;
+		this.maxTTL = maxTTL;
+		this.cache = CacheBuilder.newBuilder().expireAfterWrite(maxTTL, TimeUnit.MILLISECONDS).maximumSize(maxSize).build();
+	}
+	
+	/**
+	 * Refresh the key set of the underlying JWK store now, and then periodically in a background thread.
+	 */
+	public void startKeySetRefresh(long interval) {
+		refreshExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "JwkSetRefresher");
+			t.setDaemon(true);
+			return t;
+		});
+		refreshExecutor.scheduleWithFixedDelay(this::refreshKeySet, 0, interval, TimeUnit.MILLISECONDS);
+	}
+	
+	public void shutdown() {
+		if (refreshExecutor != null) refreshExecutor.shutdownNow();
+	}
+	
+	/**
+	 * The JWK store does not offer a way to (re)load its key set, but it reloads the whole set whenever it
+	 * encounters an unknown key id. So a token with a random key id is submitted to trigger the reload.
+	 * Its verification is expected to fail.
+	 */
+	private void refreshKeySet() {
+		Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+		String header = "{\"alg\":\"RS256\",\"typ\":\"JWT\",\"kid\":\"" + UUID.randomUUID().toString() + "\"}";
+		String probe = encoder.encodeToString(header.getBytes(StandardCharsets.UTF_8)) + "."
+				+ encoder.encodeToString("{}".getBytes(StandardCharsets.UTF_8)) + ".AA";
+		try {
+			delegate.readAccessToken(probe);
+		} catch (InvalidTokenException e) {
+			// Expected.
+		} catch (Exception e) {
+			log.warn("Failed to refresh JWK set: " + e.getMessage());
+		}
+	}
+	
+	@Override
+	public OAuth2AccessToken readAccessToken(String tokenValue) {
+		VerifiedToken token = verify(tokenValue);
+		return (token == null) ? null : token.accessToken;
+	}
+	
+	@Override
+	public OAuth2Authentication readAuthentication(String token) {
+		VerifiedToken verifiedToken = verify(token);
+		return (verifiedToken == null) ? null : verifiedToken.authentication;
+	}
+	
+	@Override
+	public OAuth2Authentication readAuthentication(OAuth2AccessToken token) {
+		return readAuthentication(token.getValue());
+	}
+	
+	@Override
+	public void removeAccessToken(OAuth2AccessToken token) {
+		cache.invalidate(hash(token.getValue()));
+		delegate.removeAccessToken(token);
+	}
+	
+	private VerifiedToken verify(String tokenValue) {
+		String key = hash(tokenValue);
+		VerifiedToken token = cache.getIfPresent(key);
+		if (token != null && System.currentTimeMillis() < token.expiresAt) return token;
+		
+		OAuth2AccessToken accessToken = delegate.readAccessToken(tokenValue);
+		if (accessToken == null) {
+			cache.invalidate(key);
+			return null;
+		}
+		
+		long expiresAt = System.currentTimeMillis() + maxTTL;
+		if (accessToken.getExpiration() != null) expiresAt = Math.min(expiresAt, accessToken.getExpiration().getTime());
+		token = new VerifiedToken(accessToken, delegate.readAuthentication(accessToken), expiresAt);
+		cache.put(key, token);
+		return token;
+	}
+	
+	private static String hash(String tokenValue) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return Base64.getEncoder().encodeToString(digest.digest(tokenValue.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static class VerifiedToken {
+		
+		private final OAuth2AccessToken accessToken;
+		private final OAuth2Authentication authentication;
+		private final long expiresAt;
+		
+		public VerifiedToken(OAuth2AccessToken accessToken, OAuth2Authentication authentication, long expiresAt) {
+			this.accessToken = accessToken;
+			this.authentication = authentication;
+			this.expiresAt = expiresAt;
+		}
+	}
+	
+	/*
+	 * The methods below are simply delegated.
+	 */
+	
+	@Override
+	public void storeAccessToken(OAuth2AccessToken token, OAuth2Authentication authentication) {
+		delegate.storeAccessToken(token, authentication);
+	}
+	
+	@Override
+	public void storeRefreshToken(OAuth2RefreshToken refreshToken, OAuth2Authentication authentication) {
+		delegate.storeRefreshToken(refreshToken, authentication);
+	}
+	
+	@Override
+	public OAuth2RefreshToken readRefreshToken(String tokenValue) {
+		return delegate.readRefreshToken(tokenValue);
+	}
+	
+	@Override
+	public OAuth2Authentication readAuthenticationForRefreshToken(OAuth2RefreshToken token) {
+		return delegate.readAuthenticationForRefreshToken(token);
+	}
+	
+	@Override
+	public void removeRefreshToken(OAuth2RefreshToken token) {
+		delegate.removeRefreshToken(token);
+	}
+	
+	@Override
+	public void removeAccessTokenUsingRefreshToken(OAuth2RefreshToken refreshToken) {
+		delegate.removeAccessTokenUsingRefreshToken(refreshToken);
+	}
+	
+	@Override
+	public OAuth2AccessToken getAccessToken(OAuth2Authentication authentication) {
+		return delegate.getAccessToken(authentication);
+	}
+	
+	@Override
+	public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(String clientId, String userName) {
+		return delegate.findTokensByClientIdAndUserName(clientId, userName);
+	}
+	
+	@Override
+	public Collection<OAuth2AccessToken> findTokensByClientId(String clientId) {
+		return delegate.findTokensByClientId(clientId);
+	}
+}
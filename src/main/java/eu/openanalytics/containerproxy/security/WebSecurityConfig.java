@@ -50,6 +50,8 @@ import eu.openanalytics.containerproxy.auth.UserLogoutHandler;
 @EnableWebSecurity
 public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
 
+	private static final String PROPERTY_METRICS_ACCESS = "proxy.metrics-access";
+
 	@Inject
 	private UserLogoutHandler logoutHandler;
 
@@ -120,6 +122,8 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
 		http.authorizeRequests().antMatchers("/actuator/health/readiness").permitAll();
 		http.authorizeRequests().antMatchers("/actuator/health/liveness").permitAll();
 		
+		configureMetricsAccess(http);
+		
 		// Note: call early, before http.authorizeRequests().anyRequest().fullyAuthenticated();
 		if (customConfigs != null) {
 			for (ICustomSecurityConfig cfg: customConfigs) cfg.apply(http);
@@ -155,6 +159,37 @@ public class WebSecurityConfig extends WebSecurityConfigurerAdapter {
 
 	}
 
+	/**
+	 * Configure who may read the metrics and prometheus endpoints, using the proxy.metrics-access property:
+	 * <ul>
+	 * <li>admin (default): only admin users</li>
+	 * <li>authenticated: any logged in user</li>
+	 * <li>public: anyone, e.g. when the endpoints are served on a separate management.server.port that is not exposed</li>
+	 * <li>an IP address or range (e.g. 10.0.0.0/8): anyone connecting from that range, without logging in, e.g. a Prometheus server</li>
+	 * </ul>
+	 */
+	private void configureMetricsAccess(HttpSecurity http) throws Exception {
+		String access = environment.getProperty(PROPERTY_METRICS_ACCESS, "admin").trim();
+		ExpressionUrlAuthorizationConfigurer<HttpSecurity>.AuthorizedUrl metrics = http.authorizeRequests()
+				.antMatchers("/actuator/metrics", "/actuator/metrics/**", "/actuator/prometheus");
+		switch (access.toLowerCase()) {
+			case "admin":
+				metrics.access("isAuthenticated() and @userService.isAdmin(authentication)");
+				break;
+			case "authenticated":
+				metrics.fullyAuthenticated();
+				break;
+			case "public":
+				metrics.permitAll();
+				break;
+			default:
+				if (!access.matches("[0-9a-fA-F.:]+(/[0-9]+)?")) {
+					throw new IllegalArgumentException(String.format("Invalid value for %s: %s", PROPERTY_METRICS_ACCESS, access));
+				}
+				metrics.hasIpAddress(access);
+		}
+	}
+	
 	@Bean
 	public GlobalAuthenticationConfigurerAdapter authenticationConfiguration() {
 		return new GlobalAuthenticationConfigurerAdapter() {
@@ -21,18 +21,74 @@
 package eu.openanalytics.containerproxy.service;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
+/**
+ * Dispatches events to a set of listeners.
+ * <p>
+ * By default, listeners are invoked synchronously on the thread that posts the event.
+ * If <b>proxy.event-bus.async</b> is enabled, each listener instead gets its own bounded buffer
+ * and consumer thread, so that slow listeners (e.g. usage statistics) do not delay the caller.
+ * When a buffer is full, the event is either dropped or the caller blocks until space is available,
+ * depending on <b>proxy.event-bus.overflow-policy</b>.
+ * </p>
+ */
 @Service
 public class EventService {
+	
+	private static final String PROP_ASYNC = "proxy.event-bus.async";
+	private static final String PROP_BUFFER_SIZE = "proxy.event-bus.buffer-size";
+	private static final String PROP_OVERFLOW_POLICY = "proxy.event-bus.overflow-policy";
+	
+	private static final long DROP_WARNING_INTERVAL = 60000;
+	
 	private Logger logger = LogManager.getLogger(EventService.class);
 	
 	private List<Consumer<Event>> listeners = new CopyOnWriteArrayList<>();
+	private Map<Consumer<Event>, AsyncListener> asyncListeners = new ConcurrentHashMap<>();
+	
+	private AtomicLong queuedCount = new AtomicLong();
+	private AtomicLong deliveredCount = new AtomicLong();
+	private AtomicLong droppedCount = new AtomicLong();
+	
+	private volatile boolean async;
+	private int bufferSize;
+	private OverflowPolicy overflowPolicy;
+	
+	@Inject
+	private Environment environment;
+	
+	@PostConstruct
+	public void init() {
+		async = Boolean.valueOf(environment.getProperty(PROP_ASYNC, "false"));
+		bufferSize = Integer.parseInt(environment.getProperty(PROP_BUFFER_SIZE, "1024"));
+		overflowPolicy = OverflowPolicy.valueOf(environment.getProperty(PROP_OVERFLOW_POLICY, "drop").toUpperCase());
+		if (async) logger.info(String.format("Asynchronous event dispatching enabled [buffer-size: %d] [overflow-policy: %s]", bufferSize, overflowPolicy));
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		for (AsyncListener asyncListener: asyncListeners.values()) {
+			asyncListener.stop();
+		}
+		asyncListeners.clear();
+	}
 	
 	public void post(String type, String user, String data) {
 		logger.debug("Post event [type: " + type + "] [user: " + user + "] [data: " + data + "]");
@@ -42,16 +98,134 @@ public class EventService {
 	public void post(Event event) {
 		logger.debug("Post event [type: " + event.type + "] [user: " + event.user + "] [data: " + event.data + "]");		
 		for (Consumer<Event> listener: listeners) {
-			listener.accept(event);
+			AsyncListener asyncListener = asyncListeners.get(listener);
+			if (asyncListener == null) {
+				listener.accept(event);
+				deliveredCount.incrementAndGet();
+			} else {
+				asyncListener.offer(event);
+			}
 		}
 	}
 	
 	public void addListener(Consumer<Event> listener) {
+		if (async) {
+			AsyncListener asyncListener = new AsyncListener(listener);
+			asyncListeners.put(listener, asyncListener);
+			asyncListener.start();
+		}
 		listeners.add(listener);
 	}
 	
 	public void removeListener(Consumer<Event> listener) {
 		listeners.remove(listener);
+		AsyncListener asyncListener = asyncListeners.remove(listener);
+		if (asyncListener != null) asyncListener.stop();
+	}
+	
+	/**
+	 * @return The number of events that were put in a listener buffer (async mode only).
+	 */
+	public long getQueuedCount() {
+		return queuedCount.get();
+	}
+	
+	/**
+	 * @return The number of events that were handed over to a listener.
+	 */
+	public long getDeliveredCount() {
+		return deliveredCount.get();
+	}
+	
+	/**
+	 * @return The number of events that were discarded because a listener buffer was full (async mode only).
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+	
+	private class AsyncListener implements Runnable {
+		
+		private Consumer<Event> listener;
+		private BlockingQueue<Event> buffer;
+		private Thread consumer;
+		private volatile boolean running;
+		private AtomicLong lastDropWarning = new AtomicLong();
+		private AtomicLong droppedSinceWarning = new AtomicLong();
+		
+		public AsyncListener(Consumer<Event> listener) {
+			this.listener = listener;
+			this.buffer = new ArrayBlockingQueue<>(bufferSize);
+		}
+		
+		public void start() {
+			running = true;
+			consumer = new Thread(this, EventService.class.getSimpleName() + "-" + listener.getClass().getSimpleName());
+			consumer.setDaemon(true);
+			consumer.start();
+		}
+		
+		public void stop() {
+			running = false;
+			try {
+				// Give the consumer a chance to drain the remaining events.
+				consumer.join(5000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		public void offer(Event event) {
+			boolean queued = false;
+			if (overflowPolicy == OverflowPolicy.BLOCK) {
+				try {
+					buffer.put(event);
+					queued = true;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			} else {
+				queued = buffer.offer(event);
+			}
+			
+			if (queued) {
+				queuedCount.incrementAndGet();
+			} else {
+				long total = droppedCount.incrementAndGet();
+				long dropped = droppedSinceWarning.incrementAndGet();
+				// Warn at most once per interval: under sustained overflow, a warning per event would flood the log.
+				long now = System.currentTimeMillis();
+				long lastWarning = lastDropWarning.get();
+				if (now - lastWarning >= DROP_WARNING_INTERVAL && lastDropWarning.compareAndSet(lastWarning, now)) {
+					droppedSinceWarning.addAndGet(-dropped);
+					logger.warn(String.format("Event buffer of %s full, dropped %d event(s) since the last warning [total dropped: %d]",
+							listener.getClass().getSimpleName(), dropped, total));
+				} else if (logger.isDebugEnabled()) {
+					logger.debug("Event buffer full, dropping event [type: " + event.type + "] [user: " + event.user + "]");
+				}
+			}
+		}
+		
+		@Override
+		public void run() {
+			while (running || !buffer.isEmpty()) {
+				try {
+					Event event = buffer.poll(500, TimeUnit.MILLISECONDS);
+					if (event == null) continue;
+					listener.accept(event);
+					deliveredCount.incrementAndGet();
+				} catch (InterruptedException e) {
+					break;
+				} catch (Throwable t) {
+					logger.error("Error while dispatching event to " + listener.getClass().getSimpleName(), t);
+				}
+			}
+		}
+	}
+	
+	private enum OverflowPolicy {
+		DROP,
+		BLOCK
 	}
 	
 	public static class Event {
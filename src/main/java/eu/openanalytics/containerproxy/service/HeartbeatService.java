@@ -28,6 +28,7 @@ import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -45,6 +46,8 @@ import eu.openanalytics.containerproxy.model.runtime.ProxyStatus;
 import eu.openanalytics.containerproxy.util.DelegatingStreamSinkConduit;
 import eu.openanalytics.containerproxy.util.DelegatingStreamSourceConduit;
 import eu.openanalytics.containerproxy.util.ChannelActiveListener;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.protocol.http.HttpServerConnection;
 
@@ -66,12 +69,18 @@ public class HeartbeatService {
 	
 	private volatile boolean enabled;
 	
+	private AtomicLong heartbeatLag = new AtomicLong();
+	private Counter idleKillCounter;
+	
 	@Inject
 	private ProxyService proxyService;
 	
 	@Inject
 	private Environment environment;
 	
+	@Inject
+	private MeterRegistry meterRegistry;
+	
 	@PostConstruct
 	public void init() {
 		enabled = Boolean.valueOf(environment.getProperty(PROP_ENABLED, "false"));
@@ -80,6 +89,10 @@ public class HeartbeatService {
 			enabled = environment.getProperty(PROP_RATE) != null || environment.getProperty(PROP_TIMEOUT) != null;
 		}
 		
+		// The heartbeat lag is the longest silence (in ms) of any active proxy, as seen during the last cleanup cycle.
+		meterRegistry.gauge("proxy.heartbeat.lag", heartbeatLag);
+		idleKillCounter = meterRegistry.counter("proxy.idle.kills");
+		
 		Thread cleanupThread = new Thread(new InactiveProxyKiller(), InactiveProxyKiller.class.getSimpleName());
 		cleanupThread.setDaemon(true);
 		cleanupThread.start();
@@ -179,6 +192,7 @@ public class HeartbeatService {
 				if (enabled) {
 					try {
 						long currentTimestamp = System.currentTimeMillis();
+						long maxSilence = 0;
 						for (Proxy proxy: proxyService.getProxies(null, true)) {
 							if (proxy.getStatus() != ProxyStatus.Up) continue;
 							
@@ -186,11 +200,15 @@ public class HeartbeatService {
 							if (lastHeartbeat == null) lastHeartbeat = proxy.getStartupTimestamp();
 							long proxySilence = currentTimestamp - lastHeartbeat;
 							if (proxySilence > heartbeatTimeout) {
+								idleKillCounter.increment();
 								log.info(String.format("Releasing inactive proxy [user: %s] [spec: %s] [id: %s] [silence: %dms]", proxy.getUserId(), proxy.getSpec().getId(), proxy.getId(), proxySilence));
 								proxyHeartbeats.remove(proxy.getId());
 								proxyService.stopProxy(proxy, true, true);
+							} else {
+								maxSilence = Math.max(maxSilence, proxySilence);
 							}
 						}
+						heartbeatLag.set(maxSilence);
 					} catch (Throwable t) {
 						log.error("Error in " + this.getClass().getSimpleName(), t);
 					}
@@ -22,9 +22,15 @@ package eu.openanalytics.containerproxy.service;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.concurrent.ExecutorService;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executors;
-import java.util.function.BiConsumer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -35,18 +41,42 @@ import org.apache.logging.log4j.Logger;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
+import eu.openanalytics.containerproxy.backend.IContainerOutputPoller;
 import eu.openanalytics.containerproxy.log.ILogStorage;
 import eu.openanalytics.containerproxy.log.NoopLogStorage;
+import eu.openanalytics.containerproxy.model.runtime.Container;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 
+/**
+ * Forwards the output of proxy containers to the configured log storage.
+ * <p>
+ * Container output is read in chunks by a small, fixed pool of threads which polls every attached
+ * proxy at a regular interval. The number of threads is therefore independent of the number of running proxies.
+ * </p>
+ */
 @Service
 public class LogService {
 
-	private ExecutorService executor;
+	private ScheduledExecutorService executor;
+	private ScheduledExecutorService followExecutor;
+	private long pollInterval;
+	private int maxFollowers;
+	private final AtomicInteger followers = new AtomicInteger();
 	private boolean loggingEnabled;
 	private Logger log = LogManager.getLogger(LogService.class);
 	
 	private static final String PARAM_STREAMS = "streams";
+	private static final String PARAM_POLL_TASK = "pollTask";
+	private static final String PARAM_POLLER = "poller";
+	private static final String PARAM_LAST_POLL_WARNING = "lastPollWarning";
+	
+	// A container whose output keeps failing to poll is reported at most once per interval.
+	private static final long POLL_WARNING_INTERVAL = 60000;
+	
+	private static final String PROP_LOG_THREADS = "proxy.container-log-threads";
+	private static final String PROP_LOG_POLL_INTERVAL = "proxy.container-log-poll-interval";
+	private static final String PROP_LOG_FOLLOW_THREADS = "proxy.container-log-follow-threads";
+	private static final String PROP_LOG_MAX_FOLLOWERS = "proxy.container-log-max-followers";
 	
 	@Inject
 	Environment environment;
@@ -64,7 +94,21 @@ public class LogService {
 		}
 		
 		if (isLoggingEnabled()) {
-			executor = Executors.newCachedThreadPool();
+			int threads = Integer.parseInt(environment.getProperty(PROP_LOG_THREADS, "2"));
+			pollInterval = Long.parseLong(environment.getProperty(PROP_LOG_POLL_INTERVAL, "2000"));
+			executor = Executors.newScheduledThreadPool(threads, r -> {
+				Thread t = new Thread(r, "ContainerLogPoller");
+				t.setDaemon(true);
+				return t;
+			});
+			// Followers get their own threads, so that slow clients cannot delay the capture of container output.
+			int followThreads = Integer.parseInt(environment.getProperty(PROP_LOG_FOLLOW_THREADS, "2"));
+			maxFollowers = Integer.parseInt(environment.getProperty(PROP_LOG_MAX_FOLLOWERS, "50"));
+			followExecutor = Executors.newScheduledThreadPool(followThreads, r -> {
+				Thread t = new Thread(r, "ContainerLogFollower");
+				t.setDaemon(true);
+				return t;
+			});
 			log.info("Container logging enabled. Log files will be saved to " + logStorage.getStorageLocation());
 		}
 	}
@@ -72,49 +116,66 @@ public class LogService {
 	@PreDestroy
 	public void shutdown() {
 		if (executor != null) executor.shutdown();
+		if (followExecutor != null) followExecutor.shutdownNow();
 	}
 
 	public boolean isLoggingEnabled() {
 		return loggingEnabled;
 	}
 	
-	public void attachToOutput(Proxy proxy, BiConsumer<OutputStream, OutputStream> outputAttacher) {
+	public void attachToOutput(Proxy proxy, IContainerOutputPoller outputPoller) {
 		if (!isLoggingEnabled()) return;
 		
-		executor.submit(() -> {
-			try {
-				OutputStream[] streams = logStorage.createOutputStreams(proxy);
-				if (streams == null || streams.length < 2) {
-					log.error("Failed to attach logging of proxy " + proxy.getId() + ": no output streams defined");
-				} else {
-					proxy.getContainers().get(0).getParameters().put(PARAM_STREAMS, streams);
-					if (log.isDebugEnabled()) log.debug("Container logging started for proxy " + proxy.getId());
-					// Note that this call will block until the container is stopped.
-					outputAttacher.accept(streams[0], streams[1]);
-				}
-			} catch (Exception e) {
-				log.error("Failed to attach logging of proxy " + proxy.getId(), e);
+		try {
+			List<Container> containers = proxy.getContainers();
+			OutputStream[] streams = logStorage.createOutputStreams(proxy);
+			if (streams == null || streams.length < 2 * containers.size()) {
+				log.error("Failed to attach logging of proxy " + proxy.getId() + ": no output streams defined");
+				return;
 			}
-			if (log.isDebugEnabled()) log.debug("Container logging ended for proxy " + proxy.getId());
-		});
+			for (int i = 0; i < containers.size(); i++) {
+				containers.get(i).getParameters().put(PARAM_STREAMS, new OutputStream[] { streams[2 * i], streams[2 * i + 1] });
+			}
+			Map<String, Object> params = containers.get(0).getParameters();
+			params.put(PARAM_POLLER, outputPoller);
+			ScheduledFuture<?> pollTask = executor.scheduleWithFixedDelay(
+					() -> poll(proxy, outputPoller), 0, pollInterval, TimeUnit.MILLISECONDS);
+			params.put(PARAM_POLL_TASK, pollTask);
+			if (log.isDebugEnabled()) log.debug("Container logging started for proxy " + proxy.getId());
+		} catch (Exception e) {
+			log.error("Failed to attach logging of proxy " + proxy.getId(), e);
+		}
 	}
 	
 	public void detach(Proxy proxy) {
 		if (!isLoggingEnabled()) return;
 		
-		OutputStream[] streams = (OutputStream[]) proxy.getContainers().get(0).getParameters().get(PARAM_STREAMS);
-		if (streams == null || streams.length < 2) {
+		Map<String, Object> params = proxy.getContainers().get(0).getParameters();
+		if (params.get(PARAM_STREAMS) == null) {
 			log.warn("Cannot detach container logging: streams not found");
 			return;
 		}
-		for (int i = 0; i < streams.length; i++) {
-			try {
-				streams[i].flush();
-				streams[i].close();
-			} catch (IOException e) {
-				log.error("Failed to close container logging streams", e);
+		
+		ScheduledFuture<?> pollTask = (ScheduledFuture<?>) params.get(PARAM_POLL_TASK);
+		if (pollTask != null) pollTask.cancel(false);
+		
+		// Pick up any output that was produced since the last scheduled poll.
+		IContainerOutputPoller outputPoller = (IContainerOutputPoller) params.get(PARAM_POLLER);
+		if (outputPoller != null) poll(proxy, outputPoller);
+		
+		for (Container container: proxy.getContainers()) {
+			OutputStream[] streams = (OutputStream[]) container.getParameters().get(PARAM_STREAMS);
+			if (streams == null) continue;
+			for (int i = 0; i < streams.length; i++) {
+				try {
+					streams[i].flush();
+					streams[i].close();
+				} catch (IOException e) {
+					log.error("Failed to close container logging streams", e);
+				}
 			}
 		}
+		if (log.isDebugEnabled()) log.debug("Container logging ended for proxy " + proxy.getId());
 	}
 	
 	public String[] getLogs(Proxy proxy) {
@@ -129,4 +190,152 @@ public class LogService {
 		return null;
 	}
 	
+	/**
+	 * Get the current size of one of the logs of a proxy.
+	 * 
+	 * @param proxy The proxy whose log to inspect.
+	 * @param streamIndex The index of the log, see {@link ILogStorage#getLogs(Proxy)}:
+	 * 2 * the container index, plus 0 for the standard output or 1 for the standard error.
+	 */
+	public long getLogSize(Proxy proxy, int streamIndex) throws IOException {
+		return logStorage.getLogSize(getLogPath(proxy, streamIndex));
+	}
+	
+	/**
+	 * Find the offset at which the last lines of one of the logs of a proxy start.
+	 */
+	public long findTailOffset(Proxy proxy, int streamIndex, int lines) throws IOException {
+		return logStorage.findTailOffset(getLogPath(proxy, streamIndex), lines);
+	}
+	
+	/**
+	 * Copy a range of one of the logs of a proxy to an output stream.
+	 */
+	public void writeLog(Proxy proxy, int streamIndex, long offset, long length, OutputStream out) throws IOException {
+		logStorage.writeLog(getLogPath(proxy, streamIndex), offset, length, out);
+	}
+	
+	/**
+	 * Keep copying new output of one of the logs of a proxy to an output stream, at the container log poll interval.
+	 * <p>
+	 * The log is read by a small pool of follower threads, so a follower does not occupy a thread while waiting
+	 * for new output. The number of concurrent followers is limited (<i>proxy.container-log-max-followers</i>).
+	 * </p>
+	 * 
+	 * @param offset The offset from which to start copying.
+	 * @param out The stream to copy to. It is flushed after every read.
+	 * @param active The condition that must remain true, e.g. whether the proxy is still running.
+	 * @param onEnd Called once following has ended by itself: with null if the condition became false,
+	 * or with the error that ended it (e.g. because the client disconnected).
+	 * @return A handle to stop following, or null if the maximum number of followers has been reached.
+	 */
+	public LogFollower followLog(Proxy proxy, int streamIndex, long offset, OutputStream out, BooleanSupplier active, Consumer<Throwable> onEnd) throws IOException {
+		String path = getLogPath(proxy, streamIndex);
+		if (followers.incrementAndGet() > maxFollowers) {
+			followers.decrementAndGet();
+			return null;
+		}
+		LogFollower follower = new LogFollower(path, offset, out, active, onEnd);
+		follower.start();
+		return follower;
+	}
+	
+	/**
+	 * Copies the new output of a log on every run, see {@link LogService#followLog(Proxy, int, long, OutputStream, BooleanSupplier, Consumer)}.
+	 */
+	public class LogFollower implements Runnable {
+		
+		private final String path;
+		private final OutputStream out;
+		private final BooleanSupplier active;
+		private final Consumer<Throwable> onEnd;
+		
+		private long position;
+		private ScheduledFuture<?> task;
+		private boolean stopped;
+		
+		private LogFollower(String path, long offset, OutputStream out, BooleanSupplier active, Consumer<Throwable> onEnd) {
+			this.path = path;
+			this.position = offset;
+			this.out = out;
+			this.active = active;
+			this.onEnd = onEnd;
+		}
+		
+		private synchronized void start() {
+			task = followExecutor.scheduleWithFixedDelay(this, 0, pollInterval, TimeUnit.MILLISECONDS);
+		}
+		
+		/**
+		 * Stop following, without calling the end callback.
+		 */
+		public void cancel() {
+			stop();
+		}
+		
+		private synchronized boolean stop() {
+			if (stopped) return false;
+			stopped = true;
+			if (task != null) task.cancel(false);
+			followers.decrementAndGet();
+			return true;
+		}
+		
+		private synchronized boolean isStopped() {
+			return stopped;
+		}
+		
+		@Override
+		public void run() {
+			if (isStopped()) return;
+			try {
+				// Check before reading, so that the output produced right before stopping is still included.
+				boolean running = active.getAsBoolean();
+				long size = logStorage.getLogSize(path);
+				// A log that became smaller has been rotated: continue from the start of the new log.
+				if (size < position) position = 0;
+				if (size > position) {
+					logStorage.writeLog(path, position, size - position, out);
+					position = size;
+				}
+				out.flush();
+				if (!running && stop()) onEnd.accept(null);
+			} catch (Throwable e) {
+				// Do not propagate: following ends here, and an exception would only be swallowed by the executor.
+				if (stop()) onEnd.accept(e);
+			}
+		}
+	}
+	
+	private String getLogPath(Proxy proxy, int streamIndex) throws IOException {
+		if (!isLoggingEnabled()) throw new IOException("Container logging is not enabled");
+		String[] paths = logStorage.getLogs(proxy);
+		if (streamIndex < 0 || streamIndex >= paths.length) throw new IOException("No such log for proxy " + proxy.getId() + ": " + streamIndex);
+		return paths[streamIndex];
+	}
+	
+	private void poll(Proxy proxy, IContainerOutputPoller outputPoller) {
+		// Synchronize on the poller, so that a final poll during detach never overlaps with a scheduled poll.
+		synchronized (outputPoller) {
+			for (Container container: proxy.getContainers()) {
+				OutputStream[] streams = (OutputStream[]) container.getParameters().get(PARAM_STREAMS);
+				if (streams == null) continue;
+				try {
+					outputPoller.poll(container, streams[0], streams[1]);
+				} catch (Throwable e) {
+					// Do not propagate: an exception would cancel all future polls for this proxy.
+					String message = "Failed to poll output of container " + container.getId() + " of proxy " + proxy.getId();
+					Long lastWarning = (Long) container.getParameters().get(PARAM_LAST_POLL_WARNING);
+					long now = System.currentTimeMillis();
+					if (lastWarning == null || now - lastWarning >= POLL_WARNING_INTERVAL) {
+						container.getParameters().put(PARAM_LAST_POLL_WARNING, now);
+						log.warn(message, e);
+					} else if (log.isDebugEnabled()) {
+						log.debug(message, e);
+					}
+				}
+			}
+		}
+	}
+	
 }
@@ -20,16 +20,15 @@
  */
 package eu.openanalytics.containerproxy.service;
 
-import java.io.OutputStream;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -43,6 +42,7 @@ import org.springframework.stereotype.Service;
 
 import eu.openanalytics.containerproxy.ContainerProxyException;
 import eu.openanalytics.containerproxy.backend.IContainerBackend;
+import eu.openanalytics.containerproxy.backend.IContainerOutputPoller;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 import eu.openanalytics.containerproxy.model.runtime.ProxyStatus;
 import eu.openanalytics.containerproxy.model.runtime.RuntimeSetting;
@@ -50,8 +50,12 @@ import eu.openanalytics.containerproxy.model.spec.ProxySpec;
 import eu.openanalytics.containerproxy.service.EventService.EventType;
 import eu.openanalytics.containerproxy.spec.IProxySpecMergeStrategy;
 import eu.openanalytics.containerproxy.spec.IProxySpecProvider;
+import eu.openanalytics.containerproxy.spec.ProxySpecCatalog;
 import eu.openanalytics.containerproxy.spec.ProxySpecException;
 import eu.openanalytics.containerproxy.util.ProxyMappingManager;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 
 /**
  * <p>
@@ -71,6 +75,7 @@ public class ProxyService {
 	private Logger log = LogManager.getLogger(ProxyService.class);
 	private List<Proxy> activeProxies = Collections.synchronizedList(new ArrayList<>());
 	private ExecutorService containerKiller = Executors.newSingleThreadExecutor();
+	private Set<String> meteredSpecIds = ConcurrentHashMap.newKeySet();
 	
 	@Inject
 	private IProxySpecProvider baseSpecProvider;
@@ -93,6 +98,9 @@ public class ProxyService {
 	@Inject
 	private LogService logService;
 	
+	@Inject
+	private MeterRegistry meterRegistry;
+	
 	@PreDestroy
 	public void shutdown() {
 		try {
@@ -115,8 +123,21 @@ public class ProxyService {
 	 * @return A matching ProxySpec, or null if no match was found.
 	 */
 	public ProxySpec getProxySpec(String id) {
+		return getProxySpec(id, true);
+	}
+	
+	/**
+	 * Find the ProxySpec that matches the given ID.
+	 * 
+	 * @param id The ID to look for.
+	 * @param ignoreAccessControl True to search in all ProxySpecs, regardless of the current security context.
+	 * @return A matching ProxySpec, or null if no match was found.
+	 */
+	public ProxySpec getProxySpec(String id, boolean ignoreAccessControl) {
 		if (id == null || id.isEmpty()) return null;
-		return findProxySpec(spec -> spec.getId().equals(id), true);
+		ProxySpec spec = baseSpecProvider.getCatalog().getSpec(id);
+		if (spec == null || ignoreAccessControl || userService.canAccess(spec)) return spec;
+		return null;
 	}
 	
 	/**
@@ -138,10 +159,10 @@ public class ProxyService {
 	 * @return A List of matching ProxySpecs, may be empty.
 	 */
 	public List<ProxySpec> getProxySpecs(Predicate<ProxySpec> filter, boolean ignoreAccessControl) {
-		return baseSpecProvider.getSpecs().stream()
-				.filter(spec -> ignoreAccessControl || userService.canAccess(spec))
-				.filter(spec -> filter == null || filter.test(spec))
-				.collect(Collectors.toList());
+		ProxySpecCatalog catalog = baseSpecProvider.getCatalog();
+		List<ProxySpec> specs = ignoreAccessControl ? catalog.getSpecs() : userService.getAccessibleSpecs(catalog);
+		if (filter == null) return specs;
+		return specs.stream().filter(filter).collect(Collectors.toList());
 	}
 	
 	/**
@@ -217,23 +238,29 @@ public class ProxyService {
 		proxy.setUserId(userService.getCurrentUserId());
 		proxy.setSpec(spec);
 		activeProxies.add(proxy);
+		registerProxyGauges(spec.getId());
 		
+		Timer.Sample startSample = Timer.start(meterRegistry);
 		try {
 			backend.startProxy(proxy);
+		} catch (RuntimeException e) {
+			meterRegistry.counter("proxy.start.failures", "spec", spec.getId()).increment();
+			throw e;
 		} finally {
 			if (proxy.getStatus() != ProxyStatus.Up) activeProxies.remove(proxy);
 		}
+		startSample.stop(meterRegistry.timer("proxy.start", "spec", spec.getId()));
 		
 		for (Entry<String, URI> target: proxy.getTargets().entrySet()) {
 			mappingManager.addMapping(proxy.getId(), target.getKey(), target.getValue());
 		}
 
 		if (logService.isLoggingEnabled()) {
-			BiConsumer<OutputStream, OutputStream> outputAttacher = backend.getOutputAttacher(proxy);
-			if (outputAttacher == null) {
-				log.warn("Cannot log proxy output: " + backend.getClass() + " does not support output attaching.");
+			IContainerOutputPoller outputPoller = backend.getOutputPoller(proxy);
+			if (outputPoller == null) {
+				log.warn("Cannot log proxy output: " + backend.getClass() + " does not support output polling.");
 			} else {
-				logService.attachToOutput(proxy, outputAttacher);
+				logService.attachToOutput(proxy, outputPoller);
 			}
 		}
 		
@@ -259,8 +286,9 @@ public class ProxyService {
 		
 		Runnable releaser = () -> {
 			try {
-				backend.stopProxy(proxy);
+				// Detach first, so that the final output of the containers can still be collected.
 				logService.detach(proxy);
+				meterRegistry.timer("proxy.stop", "spec", proxy.getSpec().getId()).record(() -> backend.stopProxy(proxy));
 				log.info(String.format("Proxy released [user: %s] [spec: %s] [id: %s]", proxy.getUserId(), proxy.getSpec().getId(), proxy.getId()));
 				eventService.post(EventType.ProxyStop.toString(), proxy.getUserId(), proxy.getSpec().getId());
 			} catch (Exception e){
@@ -275,4 +303,25 @@ public class ProxyService {
 		}
 	}
 
+	/**
+	 * Register the gauges that track the number of active proxies of a spec, per status.
+	 * This is done lazily, the first time a proxy is launched for the spec.
+	 */
+	private void registerProxyGauges(String specId) {
+		if (!meteredSpecIds.add(specId)) return;
+		for (ProxyStatus status: ProxyStatus.values()) {
+			Gauge.builder("proxy.active", this, s -> s.countProxies(specId, status))
+				.description("The number of active proxies")
+				.tag("spec", specId)
+				.tag("status", status.toString())
+				.register(meterRegistry);
+		}
+	}
+	
+	private long countProxies(String specId, ProxyStatus status) {
+		synchronized (activeProxies) {
+			return activeProxies.stream().filter(p -> p.getStatus() == status && specId.equals(p.getSpec().getId())).count();
+		}
+	}
+
 }
@@ -20,11 +20,14 @@
  */
 package eu.openanalytics.containerproxy.service;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
 import org.apache.logging.log4j.LogManager;
@@ -32,6 +35,7 @@ import org.apache.logging.log4j.Logger;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.core.env.Environment;
+import org.springframework.core.env.PropertyResolver;
 import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.authentication.event.AbstractAuthenticationEvent;
 import org.springframework.security.authentication.event.AbstractAuthenticationFailureEvent;
@@ -42,11 +46,15 @@ import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import eu.openanalytics.containerproxy.auth.IAuthenticationBackend;
 import eu.openanalytics.containerproxy.backend.strategy.IProxyLogoutStrategy;
 import eu.openanalytics.containerproxy.model.runtime.Proxy;
 import eu.openanalytics.containerproxy.model.spec.ProxySpec;
 import eu.openanalytics.containerproxy.service.EventService.EventType;
+import eu.openanalytics.containerproxy.spec.ProxySpecCatalog;
 import eu.openanalytics.containerproxy.util.SessionHelper;
 
 
@@ -69,27 +77,55 @@ public class UserService implements ApplicationListener<AbstractAuthenticationEv
 	@Inject
 	private IProxyLogoutStrategy logoutStrategy;
 	
-	public Authentication getCurrentAuth() {
-		return SecurityContextHolder.getContext().getAuthentication();
+	private volatile Set<String> adminGroups = Collections.emptySet();
+	
+	// Keyed by identity: an Authentication is not modified once it is stored in the security context.
+	private final Cache<Authentication, Set<String>> groupCache = CacheBuilder.newBuilder().weakKeys().build();
+	
+	@PostConstruct
+	public void init() {
+		refresh();
 	}
 	
-	public String getCurrentUserId() {
-		return getUserId(getCurrentAuth());
+	/**
+	 * Recompute the authorization model from the current configuration.
+	 */
+	public void refresh() {
+		refresh(environment);
 	}
 	
-	public String[] getAdminGroups() {
+	/**
+	 * Recompute the authorization model from the given configuration.
+	 * Should be called whenever the configuration is reloaded.
+	 * 
+	 * @param properties The reloaded configuration.
+	 */
+	public void refresh(PropertyResolver properties) {
 		Set<String> adminGroups = new HashSet<>();
 		
 		// Support for old, non-array notation
-		String singleGroup = environment.getProperty("proxy.admin-groups");
+		String singleGroup = properties.getProperty("proxy.admin-groups");
 		if (singleGroup != null && !singleGroup.isEmpty()) adminGroups.add(singleGroup.toUpperCase());
 		
 		for (int i=0 ;; i++) {
-			String groupName = environment.getProperty(String.format("proxy.admin-groups[%s]", i));
+			String groupName = properties.getProperty(String.format("proxy.admin-groups[%s]", i));
 			if (groupName == null || groupName.isEmpty()) break;
 			adminGroups.add(groupName.toUpperCase());
 		}
-
+		
+		this.adminGroups = Collections.unmodifiableSet(adminGroups);
+	}
+	
+	public Authentication getCurrentAuth() {
+		return SecurityContextHolder.getContext().getAuthentication();
+	}
+	
+	public String getCurrentUserId() {
+		return getUserId(getCurrentAuth());
+	}
+	
+	public String[] getAdminGroups() {
+		Set<String> adminGroups = this.adminGroups;
 		return adminGroups.toArray(new String[adminGroups.size()]);
 	}
 	
@@ -98,26 +134,37 @@ public class UserService implements ApplicationListener<AbstractAuthenticationEv
 	}
 	
 	public String[] getGroups(Authentication auth) {
-		List<String> groups = new ArrayList<>();
-		if (auth != null) {
-			for (GrantedAuthority grantedAuth: auth.getAuthorities()) {
-				String authName = grantedAuth.getAuthority().toUpperCase();
-				if (authName.startsWith("ROLE_")) authName = authName.substring(5);
-				groups.add(authName);
-			}
-		}
+		Set<String> groups = getGroupSet(auth);
 		return groups.toArray(new String[groups.size()]);
 	}
 	
+	/**
+	 * Get the upper-cased groups of an Authentication, without the "ROLE_" prefix.
+	 * The result is computed once per Authentication and then cached.
+	 */
+	private Set<String> getGroupSet(Authentication auth) {
+		if (auth == null) return Collections.emptySet();
+		try {
+			return groupCache.get(auth, () -> {
+				Set<String> groups = new LinkedHashSet<>();
+				for (GrantedAuthority grantedAuth: auth.getAuthorities()) {
+					String authName = grantedAuth.getAuthority().toUpperCase();
+					if (authName.startsWith("ROLE_")) authName = authName.substring(5);
+					groups.add(authName);
+				}
+				return Collections.unmodifiableSet(groups);
+			});
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to resolve groups of " + auth.getName(), e.getCause());
+		}
+	}
+	
 	public boolean isAdmin() {
 		return isAdmin(getCurrentAuth());
 	}
 	
 	public boolean isAdmin(Authentication auth) {
-		for (String adminGroup: getAdminGroups()) {
-			if (isMember(auth, adminGroup)) return true;
-		}
-		return false;
+		return isMember(auth, adminGroups);
 	}
 	
 	public boolean canAccess(ProxySpec spec) {
@@ -130,12 +177,19 @@ public class UserService implements ApplicationListener<AbstractAuthenticationEv
 
 		if (spec.getAccessControl() == null) return true;
 		
-		String[] groups = spec.getAccessControl().getGroups();
-		if (groups == null || groups.length == 0) return true;
-		for (String group: groups) {
-			if (isMember(auth, group)) return true;
-		}
-		return false;
+		Set<String> groups = spec.getAccessControl().getNormalizedGroups();
+		if (groups.isEmpty()) return true;
+		return isMember(auth, groups);
+	}
+	
+	public List<ProxySpec> getAccessibleSpecs(ProxySpecCatalog catalog) {
+		return getAccessibleSpecs(getCurrentAuth(), catalog);
+	}
+	
+	public List<ProxySpec> getAccessibleSpecs(Authentication auth, ProxySpecCatalog catalog) {
+		if (auth == null) return Collections.emptyList();
+		if (auth instanceof AnonymousAuthenticationToken) return authBackend.hasAuthorization() ? Collections.emptyList() : catalog.getSpecs();
+		return catalog.getSpecs(getGroupSet(auth));
 	}
 	
 	public boolean isOwner(Proxy proxy) {
@@ -147,10 +201,18 @@ public class UserService implements ApplicationListener<AbstractAuthenticationEv
 		return proxy.getUserId().equals(getUserId(auth));
 	}
 	
-	private boolean isMember(Authentication auth, String groupName) {
-		if (auth == null || auth instanceof AnonymousAuthenticationToken || groupName == null) return false;
-		for (String group: getGroups(auth)) {
-			if (group.equalsIgnoreCase(groupName)) return true;
+	private boolean isMember(Authentication auth, Set<String> normalizedGroupNames) {
+		if (auth == null || auth instanceof AnonymousAuthenticationToken || normalizedGroupNames.isEmpty()) return false;
+		Set<String> groups = getGroupSet(auth);
+		// Iterate over the smaller of both sets, and look up in the other.
+		if (groups.size() < normalizedGroupNames.size()) {
+			for (String group: groups) {
+				if (normalizedGroupNames.contains(group)) return true;
+			}
+		} else {
+			for (String group: normalizedGroupNames) {
+				if (groups.contains(group)) return true;
+			}
 		}
 		return false;
 	}
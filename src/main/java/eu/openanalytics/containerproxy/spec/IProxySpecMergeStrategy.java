@@ -53,6 +53,7 @@ public interface IProxySpecMergeStrategy {
 	 * @param runtimeSpec The runtime spec, or null if the strategy allows it.
 	 * @param runtimeSettings The runtime settings, or null if the strategy allows it.
 	 * @return A ProxySpec that is fully configured and can be used to instantiate a new Proxy.
+	 * The strategy may return the same instance for identical input, so the result must be treated as read-only.
 	 * @throws ProxySpecException If the spec cannot be created for any reason.
 	 */
 	public ProxySpec merge(ProxySpec baseSpec, ProxySpec runtimeSpec, Set<RuntimeSetting> runtimeSettings) throws ProxySpecException;
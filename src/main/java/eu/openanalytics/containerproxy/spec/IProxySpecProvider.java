@@ -32,5 +32,10 @@ public interface IProxySpecProvider {
 	public List<ProxySpec> getSpecs();
 	
 	public ProxySpec getSpec(String id);
+	
+	/**
+	 * @return An immutable snapshot of the current specs.
+	 */
+	public ProxySpecCatalog getCatalog();
 
 }
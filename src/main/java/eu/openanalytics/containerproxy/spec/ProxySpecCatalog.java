@@ -0,0 +1,109 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.spec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import eu.openanalytics.containerproxy.model.spec.ProxySpec;
+
+/**
+ * An immutable snapshot of the base ProxySpecs, indexed by ID.
+ * <p>
+ * The list of specs accessible to a set of groups is computed once per distinct set of groups,
+ * and then shared by all users with the same groups.
+ * </p>
+ */
+public class ProxySpecCatalog {
+
+	private static final int MAX_VIEWS = 1000;
+	
+	private final List<ProxySpec> specs;
+	private final Map<String, ProxySpec> specsById;
+	private final Cache<Set<String>, List<ProxySpec>> views = CacheBuilder.newBuilder().maximumSize(MAX_VIEWS).build();
+	
+	public ProxySpecCatalog(List<ProxySpec> specs) {
+		Map<String, ProxySpec> specsById = new LinkedHashMap<>();
+		if (specs != null) {
+			for (ProxySpec spec: specs) {
+				if (spec == null || spec.getId() == null) continue;
+				specsById.putIfAbsent(spec.getId(), spec);
+			}
+		}
+		this.specsById = Collections.unmodifiableMap(specsById);
+		this.specs = Collections.unmodifiableList(new ArrayList<>(specsById.values()));
+	}
+	
+	/**
+	 * @return All specs in this catalog, regardless of access control.
+	 */
+	public List<ProxySpec> getSpecs() {
+		return specs;
+	}
+	
+	/**
+	 * @param id The ID of the spec to look for.
+	 * @return The matching spec, or null if no match was found.
+	 */
+	public ProxySpec getSpec(String id) {
+		if (id == null) return null;
+		return specsById.get(id);
+	}
+	
+	/**
+	 * Get the specs that are accessible to members of the given groups.
+	 * Specs without access control are accessible to everyone.
+	 * 
+	 * @param normalizedGroups The upper-cased groups of a user.
+	 * @return An unmodifiable list of accessible specs, shared between all callers with the same groups.
+	 */
+	public List<ProxySpec> getSpecs(Set<String> normalizedGroups) {
+		try {
+			return views.get(normalizedGroups, () -> {
+				List<ProxySpec> accessibleSpecs = new ArrayList<>();
+				for (ProxySpec spec: specs) {
+					if (isAccessible(spec, normalizedGroups)) accessibleSpecs.add(spec);
+				}
+				return Collections.unmodifiableList(accessibleSpecs);
+			});
+		} catch (ExecutionException e) {
+			throw new ProxySpecException("Failed to resolve accessible specs", e.getCause());
+		}
+	}
+	
+	private static boolean isAccessible(ProxySpec spec, Set<String> normalizedGroups) {
+		if (spec.getAccessControl() == null) return true;
+		Set<String> groups = spec.getAccessControl().getNormalizedGroups();
+		if (groups.isEmpty()) return true;
+		for (String group: groups) {
+			if (normalizedGroups.contains(group)) return true;
+		}
+		return false;
+	}
+}
@@ -22,6 +22,7 @@ package eu.openanalytics.containerproxy.spec.expression;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 import javax.inject.Inject;
 
@@ -36,6 +37,7 @@ import org.springframework.context.expression.MapAccessor;
 import org.springframework.context.expression.StandardBeanExpressionResolver;
 import org.springframework.core.convert.ConversionService;
 import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionException;
 import org.springframework.expression.ExpressionParser;
 import org.springframework.expression.ParserContext;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
@@ -44,12 +46,18 @@ import org.springframework.expression.spel.support.StandardTypeConverter;
 import org.springframework.expression.spel.support.StandardTypeLocator;
 import org.springframework.stereotype.Component;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 /**
  * Note: inspired by org.springframework.context.expression.StandardBeanExpressionResolver
  */
 @Component
 public class SpecExpressionResolver {
 
+	private static final int EXPRESSION_CACHE_SIZE = 10000;
+
 	@Inject
 	private ApplicationContext appContext;
 	
@@ -57,6 +65,8 @@ public class SpecExpressionResolver {
 	
 	private final Map<SpecExpressionContext, StandardEvaluationContext> evaluationCache = new ConcurrentHashMap<>(8);
 	
+	private final Cache<String, Expression> expressionCache = CacheBuilder.newBuilder().maximumSize(EXPRESSION_CACHE_SIZE).build();
+	
 	private final ParserContext beanExpressionParserContext = new ParserContext() {
 		@Override
 		public boolean isTemplate() {
@@ -80,7 +90,7 @@ public class SpecExpressionResolver {
 		if (expression == null) return null;
 		if (expression.isEmpty()) return "";
 		
-		Expression expr = this.expressionParser.parseExpression(expression, this.beanExpressionParserContext);
+		Expression expr = precompile(expression);
 		
 		ConfigurableBeanFactory beanFactory = ((ConfigurableApplicationContext) appContext).getBeanFactory();
 		
@@ -102,6 +112,22 @@ public class SpecExpressionResolver {
 		return expr.getValue(sec);
 	}
 	
+	/**
+	 * Parse an expression and keep the result, so that later evaluations do not need to parse it again.
+	 * 
+	 * @param expression The expression to parse.
+	 * @return The parsed expression.
+	 * @throws ExpressionException If the expression cannot be parsed.
+	 */
+	public Expression precompile(String expression) {
+		try {
+			return expressionCache.get(expression, () -> expressionParser.parseExpression(expression, beanExpressionParserContext));
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			if (e.getCause() instanceof ExpressionException) throw (ExpressionException) e.getCause();
+			throw new IllegalStateException("Failed to parse expression: " + expression, e.getCause());
+		}
+	}
+	
 	public String evaluateToString(String expression, SpecExpressionContext context) {
 		return String.valueOf(evaluate(expression, context));
 	}
@@ -20,13 +20,20 @@
  */
 package eu.openanalytics.containerproxy.spec.impl;
 
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 
 import javax.inject.Inject;
 
 import org.springframework.stereotype.Component;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 import eu.openanalytics.containerproxy.model.runtime.RuntimeSetting;
 import eu.openanalytics.containerproxy.model.spec.ProxySpec;
 import eu.openanalytics.containerproxy.spec.IProxySpecMergeStrategy;
@@ -35,17 +42,37 @@ import eu.openanalytics.containerproxy.spec.setting.SettingTypeRegistry;
 
 /**
  * This default merge strategy allows any combination of base spec, runtime spec and runtime settings.
+ * <p>
+ * Merges of a base spec with (optional) runtime settings are cached: identical launches share the same
+ * merged spec, instead of deep-copying the base spec every time. Merges involving a runtime spec are not cached.
+ * </p>
  */
 @Component
 public class DefaultSpecMergeStrategy implements IProxySpecMergeStrategy {
 
+	private static final int MAX_MERGES_PER_SPEC = 100;
+	
 	@Inject
 	private SettingTypeRegistry settingTypeRegistry;
 	
+	// Keyed by identity of the base spec: a reloaded base spec is a new instance, and gets a new cache.
+	private final Cache<ProxySpec, Cache<Map<String, Object>, ProxySpec>> mergeCache = CacheBuilder.newBuilder().weakKeys().build();
+	
 	@Override
 	public ProxySpec merge(ProxySpec baseSpec, ProxySpec runtimeSpec, Set<RuntimeSetting> runtimeSettings) throws ProxySpecException {
 		if (baseSpec == null && runtimeSpec == null) throw new ProxySpecException("No base or runtime proxy spec provided");
+		if (runtimeSpec != null || baseSpec.getId() == null) return doMerge(baseSpec, runtimeSpec, runtimeSettings);
 		
+		Map<String, Object> key = getSettingsKey(baseSpec, runtimeSettings);
+		try {
+			return mergeCache.get(baseSpec, this::createMergeCache).get(key, () -> doMerge(baseSpec, null, runtimeSettings));
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			if (e.getCause() instanceof ProxySpecException) throw (ProxySpecException) e.getCause();
+			throw new ProxySpecException("Failed to merge proxy spec " + baseSpec.getId(), e.getCause());
+		}
+	}
+	
+	protected ProxySpec doMerge(ProxySpec baseSpec, ProxySpec runtimeSpec, Set<RuntimeSetting> runtimeSettings) throws ProxySpecException {
 		ProxySpec finalSpec = new ProxySpec();
 		copySpec(baseSpec, finalSpec);
 		copySpec(runtimeSpec, finalSpec);
@@ -60,6 +87,23 @@ public class DefaultSpecMergeStrategy implements IProxySpecMergeStrategy {
 		return finalSpec;
 	}
 	
+	/**
+	 * Normalize a set of runtime settings into a cache key: only the settings that have a
+	 * matching RuntimeSettingSpec in the base spec affect the merged spec.
+	 */
+	private Map<String, Object> getSettingsKey(ProxySpec baseSpec, Set<RuntimeSetting> runtimeSettings) {
+		Map<String, Object> key = new TreeMap<>();
+		if (runtimeSettings == null) return key;
+		for (RuntimeSetting setting: runtimeSettings) {
+			if (settingTypeRegistry.resolveSpec(setting, baseSpec) != null) key.put(setting.getName(), setting.getValue());
+		}
+		return key;
+	}
+	
+	private Cache<Map<String, Object>, ProxySpec> createMergeCache() {
+		return CacheBuilder.newBuilder().maximumSize(MAX_MERGES_PER_SPEC).build();
+	}
+	
 	protected void copySpec(ProxySpec from, ProxySpec to) {
 		if (from == null || to == null) return;
 		from.copy(to);
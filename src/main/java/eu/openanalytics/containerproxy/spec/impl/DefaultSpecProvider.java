@@ -23,29 +23,43 @@ package eu.openanalytics.containerproxy.spec.impl;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.PostConstruct;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
 import eu.openanalytics.containerproxy.model.spec.ProxySpec;
 import eu.openanalytics.containerproxy.spec.IProxySpecProvider;
+import eu.openanalytics.containerproxy.spec.ProxySpecCatalog;
 
 @Component
 @ConfigurationProperties(prefix = "proxy")
 public class DefaultSpecProvider implements IProxySpecProvider {
 	
 	private List<ProxySpec> specs = new ArrayList<>();
+	private volatile ProxySpecCatalog catalog = new ProxySpecCatalog(specs);
+	
+	@PostConstruct
+	public void init() {
+		catalog = new ProxySpecCatalog(specs);
+	}
 	
 	public List<ProxySpec> getSpecs() {
-		return new ArrayList<>(specs);
+		return catalog.getSpecs();
 	}
 	
 	public ProxySpec getSpec(String id) {
 		if (id == null || id.isEmpty()) return null;
-		return specs.stream().filter(s -> id.equals(s.getId())).findAny().orElse(null);
+		return catalog.getSpec(id);
+	}
+	
+	public ProxySpecCatalog getCatalog() {
+		return catalog;
 	}
 	
 	public void setSpecs(List<ProxySpec> specs) {
 		this.specs = specs;
+		this.catalog = new ProxySpecCatalog(specs);
 	}
 	
 }
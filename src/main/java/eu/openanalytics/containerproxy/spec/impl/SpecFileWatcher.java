@@ -0,0 +1,260 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.spec.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.bind.PropertySourcesPlaceholdersResolver;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.env.PropertySourcesPropertyResolver;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.stereotype.Component;
+
+import eu.openanalytics.containerproxy.ContainerProxyApplication;
+import eu.openanalytics.containerproxy.model.spec.ContainerSpec;
+import eu.openanalytics.containerproxy.model.spec.ProxySpec;
+import eu.openanalytics.containerproxy.service.UserService;
+import eu.openanalytics.containerproxy.spec.ProxySpecException;
+import eu.openanalytics.containerproxy.spec.expression.SpecExpressionResolver;
+
+/**
+ * Watches the configuration file and reloads the proxy specs when it changes.
+ * <p>
+ * The new specs are bound, validated and their expressions are precompiled on a background thread.
+ * Only if all of this succeeds, the new specs are swapped in and the authorization model (e.g. the admin groups) is refreshed.
+ * Otherwise, the current specs remain active.
+ * Running proxies are not affected by a reload, as they keep their own resolved copy of their spec.
+ * </p>
+ * <p>
+ * The reloaded file replaces the configuration files of the environment: properties from other sources,
+ * such as environment variables or command line arguments, still take precedence as they did at startup.
+ * If the configuration files cannot be found among the property sources of the environment, a reload fails
+ * instead of silently giving the old configuration precedence over the reloaded file.
+ * </p>
+ */
+@Component
+public class SpecFileWatcher {
+
+	private static final String PROP_ENABLED = "proxy.spec-reload.enabled";
+	private static final String PROP_INTERVAL = "proxy.spec-reload.interval";
+	private static final String PROP_FILE = "proxy.spec-reload.file";
+	
+	// The prefixes of the names of the property sources that Spring Boot loads from configuration files (before and since Spring Boot 2.4).
+	private static final String[] CONFIG_SOURCE_PREFIXES = { "applicationConfig", "Config resource" };
+	// The name of the property source that Spring Boot attaches to resolve relaxed names against all other sources (i.e. the old configuration).
+	private static final String ATTACHED_SOURCE_NAME = "configurationProperties";
+	
+	private Logger log = LogManager.getLogger(SpecFileWatcher.class);
+	
+	@Inject
+	private ConfigurableEnvironment environment;
+	
+	@Inject
+	private DefaultSpecProvider specProvider;
+	
+	@Inject
+	private SpecExpressionResolver expressionResolver;
+	
+	@Inject
+	private UserService userService;
+	
+	private ScheduledExecutorService executor;
+	private Path configPath;
+	private FileTime lastModified;
+	
+	@PostConstruct
+	public void init() {
+		if (!environment.getProperty(PROP_ENABLED, Boolean.class, false)) return;
+		
+		configPath = Paths.get(environment.getProperty(PROP_FILE, ContainerProxyApplication.CONFIG_FILENAME));
+		lastModified = getLastModified();
+		
+		if (environment.getPropertySources().stream().noneMatch(SpecFileWatcher::isConfigSource)) {
+			log.warn(String.format("No configuration file found among the property sources, reloading %s will fail", configPath));
+		}
+		
+		// Precompile the expressions of the specs that were bound at startup.
+		try {
+			validate(specProvider.getSpecs());
+		} catch (ProxySpecException e) {
+			log.warn("Invalid proxy spec configuration: " + e.getMessage());
+		}
+		
+		long interval = environment.getProperty(PROP_INTERVAL, Long.class, 5000L);
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "SpecFileWatcher");
+			t.setDaemon(true);
+			return t;
+		});
+		executor.scheduleWithFixedDelay(this::checkForChanges, interval, interval, TimeUnit.MILLISECONDS);
+		log.info(String.format("Watching %s for changes to the proxy specs", configPath.toAbsolutePath()));
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		if (executor != null) executor.shutdownNow();
+	}
+	
+	private void checkForChanges() {
+		FileTime modified = getLastModified();
+		if (modified == null || modified.equals(lastModified)) return;
+		lastModified = modified;
+		
+		try {
+			MutablePropertySources sources = loadPropertySources();
+			List<ProxySpec> specs = bindSpecs(sources);
+			validate(specs);
+			specProvider.setSpecs(specs);
+			userService.refresh(new PropertySourcesPropertyResolver(sources));
+			log.info(String.format("Reloaded %d proxy specs from %s", specs.size(), configPath));
+		} catch (Exception e) {
+			log.error(String.format("Failed to reload proxy specs from %s, keeping the current specs", configPath), e);
+		}
+	}
+	
+	private FileTime getLastModified() {
+		try {
+			// Note: follows symlinks, so this also detects swapped ConfigMap mounts.
+			return Files.getLastModifiedTime(configPath);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Load the configuration file, and put it in place of the configuration files among the property sources of the environment.
+	 */
+	private MutablePropertySources loadPropertySources() throws IOException {
+		List<PropertySource<?>> documents = new YamlPropertySourceLoader().load(configPath.toString(), new FileSystemResource(configPath));
+		
+		// Later documents override earlier ones, so they must come first.
+		Set<String> activeProfiles = new HashSet<>(Arrays.asList(environment.getActiveProfiles()));
+		List<PropertySource<?>> fileSources = new ArrayList<>();
+		for (PropertySource<?> document: documents) {
+			Object profiles = document.getProperty("spring.profiles");
+			if (profiles == null || Arrays.stream(profiles.toString().split(",")).map(String::trim).anyMatch(activeProfiles::contains)) {
+				fileSources.add(document);
+			}
+		}
+		Collections.reverse(fileSources);
+		
+		MutablePropertySources sources = new MutablePropertySources();
+		boolean added = false;
+		for (PropertySource<?> source: environment.getPropertySources()) {
+			if (source.getName().equals(ATTACHED_SOURCE_NAME)) {
+				continue;
+			} else if (isConfigSource(source)) {
+				if (!added) fileSources.forEach(sources::addLast);
+				added = true;
+			} else {
+				sources.addLast(source);
+			}
+		}
+		// Appending the file last would give it the lowest precedence, so the old configuration would remain in effect.
+		if (!added) throw new IllegalStateException("No configuration file found among the property sources of the environment");
+		return sources;
+	}
+	
+	private static boolean isConfigSource(PropertySource<?> source) {
+		return Arrays.stream(CONFIG_SOURCE_PREFIXES).anyMatch(prefix -> source.getName().startsWith(prefix));
+	}
+	
+	private List<ProxySpec> bindSpecs(MutablePropertySources sources) {
+		Binder binder = new Binder(ConfigurationPropertySources.from(sources), new PropertySourcesPlaceholdersResolver(sources));
+		return binder.bind("proxy.specs", Bindable.listOf(ProxySpec.class)).orElseGet(ArrayList::new);
+	}
+	
+	/**
+	 * Check the specs for errors that would otherwise only surface when a proxy is launched,
+	 * and parse all their expressions so that launches do not have to.
+	 */
+	private void validate(List<ProxySpec> specs) {
+		Set<String> ids = new HashSet<>();
+		for (ProxySpec spec: specs) {
+			if (spec.getId() == null || spec.getId().isEmpty()) throw new ProxySpecException("Proxy spec without id");
+			if (!ids.add(spec.getId())) throw new ProxySpecException("Duplicate proxy spec id: " + spec.getId());
+			if (spec.getContainerSpecs() == null || spec.getContainerSpecs().isEmpty()) {
+				throw new ProxySpecException("Proxy spec without containers: " + spec.getId());
+			}
+			
+			try {
+				for (ContainerSpec containerSpec: spec.getContainerSpecs()) {
+					if (containerSpec.getImage() == null) throw new ProxySpecException("Container without image in proxy spec: " + spec.getId());
+					precompile(containerSpec.getImage(), containerSpec.getEnvFile(), containerSpec.getNetwork(),
+							containerSpec.getMemoryRequest(), containerSpec.getMemoryLimit(), containerSpec.getCpuRequest(), containerSpec.getCpuLimit());
+					precompile(containerSpec.getCmd());
+					precompile(containerSpec.getNetworkConnections());
+					precompile(containerSpec.getDns());
+					precompile(containerSpec.getVolumes());
+					precompile(containerSpec.getEnv());
+					precompile(containerSpec.getLabels());
+					precompile(containerSpec.getSettings());
+				}
+				precompile(spec.getKubernetesPodPatch());
+				if (spec.getKubernetesAdditionalManifests() != null) {
+					precompile(spec.getKubernetesAdditionalManifests().toArray(new String[0]));
+				}
+			} catch (ProxySpecException e) {
+				throw e;
+			} catch (RuntimeException e) {
+				throw new ProxySpecException(String.format("Invalid expression in proxy spec %s: %s", spec.getId(), e.getMessage()), e);
+			}
+		}
+	}
+	
+	private void precompile(String... expressions) {
+		if (expressions == null) return;
+		for (String expression: expressions) {
+			if (expression != null && !expression.isEmpty()) expressionResolver.precompile(expression);
+		}
+	}
+	
+	private void precompile(Map<String, String> expressions) {
+		if (expressions == null) return;
+		for (String expression: expressions.values()) precompile(expression);
+	}
+}
@@ -20,12 +20,17 @@
  */
 package eu.openanalytics.containerproxy.spec.setting;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import eu.openanalytics.containerproxy.model.runtime.RuntimeSetting;
 import eu.openanalytics.containerproxy.model.spec.ProxySpec;
 import eu.openanalytics.containerproxy.model.spec.RuntimeSettingSpec;
@@ -40,6 +45,9 @@ import eu.openanalytics.containerproxy.spec.ProxySpecException;
  * <li>If a matching type was found, an attempt will be made to apply the value of the setting onto the target ProxySpec,
  * using the rules of the setting type.</li>
  * </p>
+ * <p>
+ * The RuntimeSettingSpecs of each ProxySpec are indexed by name the first time a setting is resolved against it.
+ * </p>
  */
 @Component
 public class SettingTypeRegistry {
@@ -47,8 +55,31 @@ public class SettingTypeRegistry {
 	@Autowired(required=false)
 	private Map<String, IRuntimeSettingType> typeMap = new HashMap<>();
 	
+	// Keyed by identity: weak keys allow specs to be collected, e.g. after a reload.
+	private final Cache<ProxySpec, Map<String, RuntimeSettingSpec>> settingSpecIndex = CacheBuilder.newBuilder().weakKeys().build();
+	
 	public RuntimeSettingSpec resolveSpec(RuntimeSetting setting, ProxySpec proxySpec) {
-		return proxySpec.getRuntimeSettingSpecs().stream().filter(s -> s.getName().equals(setting.getName())).findAny().orElse(null);
+		if (setting.getName() == null) return null;
+		return getSettingSpecs(proxySpec).get(setting.getName());
+	}
+	
+	/**
+	 * @param proxySpec The ProxySpec whose RuntimeSettingSpecs to index. Its RuntimeSettingSpecs should not change afterwards.
+	 * @return The RuntimeSettingSpecs of the given ProxySpec, indexed by name.
+	 */
+	public Map<String, RuntimeSettingSpec> getSettingSpecs(ProxySpec proxySpec) {
+		if (proxySpec.getRuntimeSettingSpecs() == null) return Collections.emptyMap();
+		try {
+			return settingSpecIndex.get(proxySpec, () -> {
+				Map<String, RuntimeSettingSpec> index = new HashMap<>();
+				for (RuntimeSettingSpec settingSpec: proxySpec.getRuntimeSettingSpecs()) {
+					if (settingSpec.getName() != null) index.putIfAbsent(settingSpec.getName(), settingSpec);
+				}
+				return Collections.unmodifiableMap(index);
+			});
+		} catch (ExecutionException e) {
+			throw new ProxySpecException("Failed to index runtime setting specs", e.getCause());
+		}
 	}
 	
 	public IRuntimeSettingType resolveSpecType(RuntimeSettingSpec settingSpec) {
@@ -21,6 +21,7 @@
 package eu.openanalytics.containerproxy.stat;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.springframework.core.env.Environment;
 
@@ -30,4 +31,25 @@ public interface IStatCollector {
 
 	public void accept(Event event, Environment env) throws IOException;
 
+	/**
+	 * Submit a batch of events. Unlike {@link #accept(Event, Environment)}, the events
+	 * must have been written to the target when this method returns.
+	 * 
+	 * @param events The events to submit.
+	 * @param env The application environment.
+	 * @throws IOException If the events could not be written.
+	 */
+	public default void acceptAll(List<Event> events, Environment env) throws IOException {
+		for (Event event: events) accept(event, env);
+	}
+
+	/**
+	 * Flush any pending events and release the resources held by this collector.
+	 * 
+	 * @throws IOException If the pending events could not be flushed.
+	 */
+	public default void shutdown() throws IOException {
+		// Default: nothing to flush.
+	}
+
 }
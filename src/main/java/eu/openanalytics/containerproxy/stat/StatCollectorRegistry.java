@@ -21,9 +21,11 @@
 package eu.openanalytics.containerproxy.stat;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.function.Consumer;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 
 import org.apache.logging.log4j.LogManager;
@@ -48,22 +50,43 @@ public class StatCollectorRegistry implements Consumer<Event> {
 	EventService eventService;
 	
 	private IStatCollector collector;
+	private StatSpool spool;
 	
 	@PostConstruct
 	public void init() {
 		String baseURL = environment.getProperty("proxy.usage-stats-url");
-		collector = findCollector(baseURL);
+		try {
+			collector = findCollector(baseURL);
+		} catch (IOException e) {
+			log.error("Failed to initialize usage statistics collector for " + baseURL, e);
+		}
 		if (collector == null) {
 			log.info("Disabled. Usage statistics will not be processed.");
 		} else {
+			initSpool();
 			eventService.addListener(this);
 			log.info(String.format("Enabled. Sending usage statistics to %s", baseURL));
 		}
 	}
 	
+	@PreDestroy
+	public void shutdown() {
+		if (collector != null) {
+			eventService.removeListener(this);
+			if (spool != null) spool.close();
+			try {
+				collector.shutdown();
+			} catch (IOException e) {
+				log.error("Failed to flush pending usage statistic events", e);
+			}
+		}
+	}
+	
 	@Override
 	public void accept(Event event) {
-		if (collector != null) {
+		if (spool != null) {
+			spool.append(event);
+		} else if (collector != null) {
 			try {
 				collector.accept(event, environment);
 			} catch (IOException e) {
@@ -72,10 +95,30 @@ public class StatCollectorRegistry implements Consumer<Event> {
 		}
 	}
 	
-	private IStatCollector findCollector(String baseURL) {
+	/**
+	 * If a spool path is configured, events are first written to a local spool, and forwarded to the collector
+	 * in the background. This ensures events are not lost while the collector's target is unavailable.
+	 */
+	private void initSpool() {
+		String spoolPath = environment.getProperty("proxy.usage-stats-spool-path");
+		if (spoolPath == null || spoolPath.isEmpty()) return;
+		
+		int segmentSize = environment.getProperty("proxy.usage-stats-spool-segment-size", Integer.class, 4*1024*1024);
+		long maxSize = environment.getProperty("proxy.usage-stats-spool-max-size", Long.class, 256L*1024*1024);
+		int batchSize = environment.getProperty("proxy.usage-stats-spool-batch-size", Integer.class, 100);
+		try {
+			StatSpool newSpool = new StatSpool(Paths.get(spoolPath), segmentSize, maxSize, batchSize, collector, environment);
+			newSpool.open();
+			spool = newSpool;
+		} catch (IOException e) {
+			log.error("Failed to open usage statistics spool at " + spoolPath + ", events will be sent directly", e);
+		}
+	}
+	
+	private IStatCollector findCollector(String baseURL) throws IOException {
 		if (baseURL == null || baseURL.isEmpty()) return null;
 		if (baseURL.toLowerCase().contains("/write?db=")) {
-			return new InfluxDBCollector();
+			return new InfluxDBCollector(environment);
 		} else if (baseURL.toLowerCase().startsWith("jdbc")) {
 			return new JDBCCollector(environment);
 		}
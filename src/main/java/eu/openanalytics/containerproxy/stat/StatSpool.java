@@ -0,0 +1,422 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.stat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.core.env.Environment;
+
+import eu.openanalytics.containerproxy.service.EventService.Event;
+
+/**
+ * A durable, append-only spool for usage statistic events.
+ * <p>
+ * Events are appended to memory-mapped segment files, and a background thread forwards them
+ * in batches to the actual collector. If the collector fails (e.g. because the database is down),
+ * the forwarder backs off and retries later, without losing events and without blocking the caller.
+ * </p><p>
+ * Each segment contains a sequence of records <i>[int length][event bytes]</i>, terminated by a length of 0.
+ * When a segment is full, a new one is created. Segments are deleted once all their events have been forwarded.
+ * The position of the forwarder is stored in a checkpoint file, so that forwarding resumes after a restart.
+ * </p>
+ */
+public class StatSpool {
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".spool";
+	private static final String CHECKPOINT_FILE = "checkpoint";
+	
+	private static final long MIN_BACKOFF = 1000;
+	private static final long MAX_BACKOFF = 60000;
+	
+	private Logger log = LogManager.getLogger(StatSpool.class);
+	
+	private Path directory;
+	private int segmentSize;
+	private int maxSegments;
+	private int batchSize;
+	
+	private IStatCollector collector;
+	private Environment environment;
+	
+	// Ordered from oldest to newest. The last segment is the one being written to.
+	private LinkedList<Segment> segments = new LinkedList<>();
+	private long readSequence;
+	private int readOffset;
+	
+	private Thread forwarder;
+	private volatile boolean running;
+	
+	public StatSpool(Path directory, int segmentSize, long maxSize, int batchSize, IStatCollector collector, Environment environment) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSegments = (int) Math.max(2, maxSize / segmentSize);
+		this.batchSize = batchSize;
+		this.collector = collector;
+		this.environment = environment;
+	}
+	
+	public synchronized void open() throws IOException {
+		Files.createDirectories(directory);
+		
+		List<Path> segmentFiles = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path path: stream) segmentFiles.add(path);
+		}
+		Collections.sort(segmentFiles);
+		for (Path path: segmentFiles) {
+			String name = path.getFileName().toString();
+			long sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+			segments.add(new Segment(sequence, path));
+		}
+		if (segments.isEmpty()) segments.add(createSegment(0));
+		
+		readSequence = segments.getFirst().sequence;
+		readOffset = 0;
+		Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+		if (Files.exists(checkpoint)) {
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+			long sequence = buffer.getLong();
+			int offset = buffer.getInt();
+			if (getSegment(sequence) != null) {
+				readSequence = sequence;
+				readOffset = offset;
+			}
+		}
+		
+		log.info(String.format("Usage statistics spool opened [path: %s] [segments: %d]", directory, segments.size()));
+		
+		running = true;
+		forwarder = new Thread(this::forward, StatSpool.class.getSimpleName());
+		forwarder.setDaemon(true);
+		forwarder.start();
+	}
+	
+	public void close() {
+		running = false;
+		if (forwarder != null) {
+			forwarder.interrupt();
+			try {
+				forwarder.join(10000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (this) {
+			for (Segment segment: segments) segment.buffer.force();
+			writeCheckpoint();
+		}
+	}
+	
+	/**
+	 * Append an event to the spool. The event will be forwarded to the collector asynchronously.
+	 * 
+	 * @param event The event to append.
+	 * @return True if the event was appended, false if the spool is full.
+	 */
+	public synchronized boolean append(Event event) {
+		byte[] record;
+		try {
+			record = serialize(event);
+		} catch (IOException e) {
+			log.error("Failed to serialize usage statistic event", e);
+			return false;
+		}
+		
+		Segment segment = segments.getLast();
+		if (!segment.hasRoom(record.length)) {
+			if (record.length + 8 > segmentSize) {
+				log.warn(String.format("Usage statistic event too large for spool, discarding it [type: %s] [user: %s]", event.type, event.user));
+				return false;
+			}
+			if (segments.size() >= maxSegments) {
+				log.warn(String.format("Usage statistics spool is full, discarding event [type: %s] [user: %s]", event.type, event.user));
+				return false;
+			}
+			try {
+				segment = createSegment(segment.sequence + 1);
+			} catch (IOException e) {
+				log.error("Failed to create usage statistics spool segment", e);
+				return false;
+			}
+			segments.add(segment);
+		}
+		segment.append(record);
+		notifyAll();
+		return true;
+	}
+	
+	private void forward() {
+		long backoff = MIN_BACKOFF;
+		while (running) {
+			try {
+				List<Record> records = waitForRecords();
+				if (records.isEmpty()) continue;
+				
+				List<Event> events = new ArrayList<>(records.size());
+				for (Record record: records) {
+					if (record.event != null) events.add(record.event);
+				}
+				try {
+					if (!events.isEmpty()) collector.acceptAll(events, environment);
+				} catch (IOException e) {
+					log.warn(String.format("Failed to submit %d usage statistic event(s), retrying in %d ms: %s", events.size(), backoff, e.getMessage()));
+					Thread.sleep(backoff);
+					backoff = Math.min(backoff * 2, MAX_BACKOFF);
+					continue;
+				} catch (RuntimeException e) {
+					log.error(String.format("Failed to submit %d usage statistic event(s), discarding them", events.size()), e);
+				}
+				backoff = MIN_BACKOFF;
+				commit(records.get(records.size() - 1));
+			} catch (InterruptedException e) {
+				break;
+			} catch (RuntimeException e) {
+				// Keep the forwarder alive: if it died, the spool would grow until it is full.
+				log.error("Unexpected error while forwarding usage statistic events", e);
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException ie) {
+					break;
+				}
+				backoff = Math.min(backoff * 2, MAX_BACKOFF);
+			}
+		}
+	}
+	
+	private synchronized List<Record> waitForRecords() throws InterruptedException {
+		List<Record> records = readRecords();
+		if (records.isEmpty()) {
+			wait(1000);
+			records = readRecords();
+		}
+		return records;
+	}
+	
+	private List<Record> readRecords() {
+		List<Record> records = new ArrayList<>();
+		long sequence = readSequence;
+		int offset = readOffset;
+		while (records.size() < batchSize) {
+			Segment segment = getSegment(sequence);
+			if (segment == null) break;
+			
+			byte[] bytes = null;
+			boolean corrupt = false;
+			RuntimeException error = null;
+			try {
+				int length = (offset + 4 <= segmentSize) ? segment.buffer.getInt(offset) : 0;
+				if (length < 0 || length > segmentSize - offset - 4) {
+					corrupt = true;
+				} else if (length > 0) {
+					bytes = new byte[length];
+					ByteBuffer view = segment.buffer.duplicate();
+					view.position(offset + 4);
+					view.get(bytes);
+				}
+			} catch (RuntimeException e) {
+				corrupt = true;
+				error = e;
+			}
+			
+			if (corrupt) {
+				// A torn or corrupt record: the rest of the segment cannot be trusted.
+				// The last segment is still being written to, so the next append overwrites the corrupt record.
+				if (segment == segments.getLast()) break;
+				log.error(String.format("Corrupt usage statistic record in spool segment %d at offset %d, skipping the rest of the segment", sequence, offset), error);
+				sequence++;
+				offset = 0;
+				// Nothing is pending before the skipped part, so move the read position immediately, to skip it only once.
+				if (records.isEmpty()) {
+					readSequence = sequence;
+					readOffset = 0;
+				}
+				continue;
+			}
+			
+			if (bytes != null) {
+				offset += 4 + bytes.length;
+				Event event = null;
+				try {
+					event = deserialize(bytes);
+				} catch (IOException e) {
+					log.error(String.format("Skipping corrupt usage statistic event in spool segment %d at offset %d", sequence, offset), e);
+				}
+				records.add(new Record(event, sequence, offset));
+			} else if (segment != segments.getLast()) {
+				sequence++;
+				offset = 0;
+			} else {
+				break;
+			}
+		}
+		return records;
+	}
+	
+	private synchronized void commit(Record record) {
+		readSequence = record.sequence;
+		readOffset = record.nextOffset;
+		while (segments.size() > 1 && segments.getFirst().sequence < readSequence) {
+			Segment segment = segments.removeFirst();
+			try {
+				Files.deleteIfExists(segment.path);
+			} catch (IOException e) {
+				log.warn("Failed to delete usage statistics spool segment " + segment.path, e);
+			}
+		}
+		writeCheckpoint();
+	}
+	
+	private void writeCheckpoint() {
+		ByteBuffer buffer = ByteBuffer.allocate(12);
+		buffer.putLong(readSequence);
+		buffer.putInt(readOffset);
+		try {
+			Path tmpFile = directory.resolve(CHECKPOINT_FILE + ".tmp");
+			Files.write(tmpFile, buffer.array());
+			Files.move(tmpFile, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Failed to write usage statistics spool checkpoint", e);
+		}
+	}
+	
+	private Segment getSegment(long sequence) {
+		for (Segment segment: segments) {
+			if (segment.sequence == sequence) return segment;
+		}
+		return null;
+	}
+	
+	private Segment createSegment(long sequence) throws IOException {
+		Path path = directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+		return new Segment(sequence, path);
+	}
+	
+	private static byte[] serialize(Event event) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bos)) {
+			out.writeLong(event.timestamp);
+			writeString(out, event.type);
+			writeString(out, event.user);
+			writeString(out, event.data);
+		}
+		return bos.toByteArray();
+	}
+	
+	private static Event deserialize(byte[] bytes) throws IOException {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+			Event event = new Event();
+			event.timestamp = in.readLong();
+			event.type = readString(in);
+			event.user = readString(in);
+			event.data = readString(in);
+			return event;
+		}
+	}
+	
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value == null) return;
+		// Not writeUTF: it is limited to 64KB.
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readString(DataInputStream in) throws IOException {
+		if (!in.readBoolean()) return null;
+		int length = in.readInt();
+		if (length < 0 || length > in.available()) throw new IOException("Invalid string length: " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private class Segment {
+		
+		private long sequence;
+		private Path path;
+		private MappedByteBuffer buffer;
+		private int writeOffset;
+		
+		public Segment(long sequence, Path path) throws IOException {
+			this.sequence = sequence;
+			this.path = path;
+			try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+				if (file.length() < segmentSize) file.setLength(segmentSize);
+				buffer = file.getChannel().map(MapMode.READ_WRITE, 0, segmentSize);
+			}
+			// Recover the write position of an existing segment.
+			while (writeOffset + 4 <= segmentSize) {
+				int length = buffer.getInt(writeOffset);
+				if (length <= 0 || length > segmentSize - writeOffset - 4) break;
+				writeOffset += 4 + length;
+			}
+		}
+		
+		public boolean hasRoom(int length) {
+			// Reserve room for the record length and for the terminating length.
+			return writeOffset + 4 + length + 4 <= segmentSize;
+		}
+		
+		public void append(byte[] record) {
+			ByteBuffer view = buffer.duplicate();
+			view.position(writeOffset + 4);
+			view.put(record);
+			view.putInt(0);
+			// Write the length last, which makes the record visible to the reader.
+			buffer.putInt(writeOffset, record.length);
+			writeOffset += 4 + record.length;
+		}
+	}
+	
+	private static class Record {
+		
+		private Event event;
+		private long sequence;
+		private int nextOffset;
+		
+		public Record(Event event, long sequence, int nextOffset) {
+			this.event = event;
+			this.sequence = sequence;
+			this.nextOffset = nextOffset;
+		}
+	}
+}
@@ -21,13 +21,23 @@
 package eu.openanalytics.containerproxy.stat.impl;
 
 import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Optional;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.springframework.core.env.Environment;
 
 import eu.openanalytics.containerproxy.service.EventService.Event;
@@ -37,32 +47,157 @@ import eu.openanalytics.containerproxy.stat.IStatCollector;
 /**
  * E.g.:
  * usage-stats-url: http://localhost:8086/write?db=shinyproxy_usagestats
+ * 
+ * Optional:
+ * usage-stats-batch-size: 100
+ * usage-stats-batch-interval: 5000
+ * usage-stats-gzip: true
+ * 
+ * If the batch size is larger than 1, points are buffered and sent in a single POST
+ * once the batch size is reached, or once the interval (in ms) has passed.
  */
 public class InfluxDBCollector implements IStatCollector {
 
+	private static final String MEASUREMENT = "event";
+	
+	private Logger log = LogManager.getLogger(InfluxDBCollector.class);
+	
+	private URL destination;
+	private boolean gzip;
+	
+	private int batchSize;
+	private List<String> pendingPoints = new ArrayList<>();
+	private ScheduledExecutorService flushExecutor;
+	
+	public InfluxDBCollector(Environment environment) throws IOException {
+		destination = new URL(environment.getProperty("proxy.usage-stats-url"));
+		gzip = environment.getProperty("proxy.usage-stats-gzip", Boolean.class, false);
+		
+		batchSize = environment.getProperty("proxy.usage-stats-batch-size", Integer.class, 1);
+		if (batchSize > 1) {
+			long batchInterval = environment.getProperty("proxy.usage-stats-batch-interval", Long.class, 5000L);
+			flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, InfluxDBCollector.class.getSimpleName());
+				t.setDaemon(true);
+				return t;
+			});
+			flushExecutor.scheduleWithFixedDelay(this::flushQuietly, batchInterval, batchInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+	
 	@Override
 	public void accept(Event event, Environment env) throws IOException {
-		String destination = env.getProperty("proxy.usage-stats-url");
-		String data = Optional.ofNullable(event.data).orElse("");
-		String body = String.format("event,username=%s,type=%s data=\"%s\"", event.user.replace(" ", "\\ "), event.type.replace(" ", "\\ "), data);
-		doPost(destination, body);
+		String point = toLineProtocol(event);
+		if (flushExecutor == null) {
+			doPost(Collections.singletonList(point));
+			return;
+		}
+		
+		boolean batchFull;
+		synchronized (pendingPoints) {
+			pendingPoints.add(point);
+			batchFull = pendingPoints.size() >= batchSize;
+		}
+		if (batchFull) flushExecutor.submit(this::flushQuietly);
+	}
+	
+	@Override
+	public void acceptAll(List<Event> events, Environment env) throws IOException {
+		List<String> points = new ArrayList<>(events.size());
+		for (Event event: events) points.add(toLineProtocol(event));
+		doPost(points);
 	}
 	
-	private void doPost(String url, String body) throws IOException {
-		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+	@Override
+	public void shutdown() throws IOException {
+		if (flushExecutor == null) return;
+		flushExecutor.shutdown();
+		try {
+			flushExecutor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+	
+	/**
+	 * Convert an event into a point using the InfluxDB line protocol, e.g.:
+	 * <pre>event,username=jack,type=Login data="" 1556813561098000000</pre>
+	 * 
+	 * @param event The event to convert.
+	 * @return The event as a line protocol point, with a nanosecond timestamp.
+	 */
+	public static String toLineProtocol(Event event) {
+		StringBuilder point = new StringBuilder(MEASUREMENT);
+		appendTag(point, "username", event.user);
+		appendTag(point, "type", event.type);
+		point.append(" data=\"");
+		if (event.data != null) point.append(event.data.replace("\\", "\\\\").replace("\"", "\\\""));
+		point.append('"');
+		if (event.timestamp > 0) point.append(' ').append(TimeUnit.MILLISECONDS.toNanos(event.timestamp));
+		return point.toString();
+	}
+	
+	private static void appendTag(StringBuilder point, String key, String value) {
+		// Note: InfluxDB does not accept empty tag values, so omit the tag instead.
+		if (value == null || value.isEmpty()) return;
+		point.append(',').append(key).append('=');
+		for (char c: value.toCharArray()) {
+			if (c == ',' || c == '=' || c == ' ') point.append('\\');
+			point.append(c);
+		}
+	}
+	
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException e) {
+			log.error("Failed to submit usage statistic events", e);
+		}
+	}
+	
+	private void flush() throws IOException {
+		List<String> points;
+		synchronized (pendingPoints) {
+			if (pendingPoints.isEmpty()) return;
+			points = pendingPoints;
+			pendingPoints = new ArrayList<>();
+		}
+		doPost(points);
+	}
+	
+	private void doPost(List<String> points) throws IOException {
+		byte[] body = String.join("\n", points).getBytes(StandardCharsets.UTF_8);
+		
+		HttpURLConnection conn = (HttpURLConnection) destination.openConnection();
 		conn.setRequestMethod("POST");
 		conn.setDoOutput(true);
-		try (DataOutputStream dos = new DataOutputStream(conn.getOutputStream())) {
-			dos.write(body.getBytes("UTF-8"));
-			dos.flush();
+		if (gzip) {
+			conn.setRequestProperty("Content-Encoding", "gzip");
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			try (GZIPOutputStream gzos = new GZIPOutputStream(bos)) {
+				gzos.write(body);
+			}
+			body = bos.toByteArray();
+		}
+		conn.setFixedLengthStreamingMode(body.length);
+		try (OutputStream os = conn.getOutputStream()) {
+			os.write(body);
 		}
+		
+		// Note: the response and error streams are always fully read and closed (but the connection is not disconnected),
+		// so that the underlying keep-alive connection is returned to the JDK's connection pool.
 		int responseCode = conn.getResponseCode();
 		if (responseCode == 204) {
-			// All is well.
+			try (InputStream is = conn.getInputStream()) {
+				IOUtils.copy(is, new ByteArrayOutputStream());
+			}
 		} else {
 			ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			IOUtils.copy(conn.getErrorStream(), bos);
-			throw new IOException(new String(bos.toByteArray()));
+			try (InputStream es = conn.getErrorStream()) {
+				if (es != null) IOUtils.copy(es, bos);
+			}
+			throw new IOException(String.format("Failed to write %d point(s) to InfluxDB [status: %d]: %s", points.size(), responseCode, new String(bos.toByteArray(), StandardCharsets.UTF_8)));
 		}
 	}
 }
@@ -26,7 +26,15 @@ import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.springframework.core.env.Environment;
 
 import com.zaxxer.hikari.HikariDataSource;
@@ -55,10 +63,26 @@ import eu.openanalytics.containerproxy.stat.IStatCollector;
  * create table event( event_time datetime, username varchar(128), type
  * varchar(128), data text );
  * 
+ * 
+ * # Batching (optional):
+ * usage-stats-batch-size: 100
+ * usage-stats-batch-interval: 5000
+ * 
+ * If the batch size is larger than 1, events are buffered and written using a single
+ * JDBC batch once the batch size is reached, or once the interval (in ms) has passed.
+ * 
  */
 public class JDBCCollector implements IStatCollector {
 
+	private static final String SQL_INSERT = "INSERT INTO event(event_time, username, type, data) VALUES (?,?,?,?)";
+	
+	private Logger log = LogManager.getLogger(JDBCCollector.class);
+	
 	private HikariDataSource ds;
+	
+	private int batchSize;
+	private List<Event> pendingEvents = new ArrayList<>();
+	private ScheduledExecutorService flushExecutor;
 
 	public JDBCCollector(Environment environment) {
 		String baseURL = environment.getProperty("proxy.usage-stats-url");
@@ -94,22 +118,95 @@ public class JDBCCollector implements IStatCollector {
 			ds.setMaximumPoolSize(maximumPoolSize);
 		}
 		
+		batchSize = environment.getProperty("proxy.usage-stats-batch-size", Integer.class, 1);
+		if (batchSize > 1) {
+			long batchInterval = environment.getProperty("proxy.usage-stats-batch-interval", Long.class, 5000L);
+			flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, JDBCCollector.class.getSimpleName());
+				t.setDaemon(true);
+				return t;
+			});
+			flushExecutor.scheduleWithFixedDelay(this::flushQuietly, batchInterval, batchInterval, TimeUnit.MILLISECONDS);
+		}
 	}
 
 
 	@Override
 	public void accept(Event event, Environment env) throws IOException {
-		String sql = "INSERT INTO event(event_time, username, type, data) VALUES (?,?,?,?)";
+		if (flushExecutor == null) {
+			writeEvents(Collections.singletonList(event));
+			return;
+		}
+		
+		boolean batchFull;
+		synchronized (pendingEvents) {
+			pendingEvents.add(event);
+			batchFull = pendingEvents.size() >= batchSize;
+		}
+		if (batchFull) flushExecutor.submit(this::flushQuietly);
+	}
+	
+	@Override
+	public void acceptAll(List<Event> events, Environment env) throws IOException {
+		writeEvents(events);
+	}
+	
+	@Override
+	public void shutdown() throws IOException {
+		if (flushExecutor != null) {
+			flushExecutor.shutdown();
+			try {
+				flushExecutor.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			flush();
+		}
+		ds.close();
+	}
+	
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException e) {
+			log.error("Failed to submit usage statistic events", e);
+		}
+	}
+	
+	private void flush() throws IOException {
+		List<Event> events;
+		synchronized (pendingEvents) {
+			if (pendingEvents.isEmpty()) return;
+			events = pendingEvents;
+			pendingEvents = new ArrayList<>();
+		}
+		writeEvents(events);
+	}
+	
+	private void writeEvents(List<Event> events) throws IOException {
 		try (Connection con = ds.getConnection()) {
-			try (PreparedStatement stmt = con.prepareStatement(sql)) {
-				stmt.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
-				stmt.setString(2, event.user);
-				stmt.setString(3, event.type);
-				stmt.setString(4, event.data);
-				stmt.executeUpdate();
-		   }
+			try (PreparedStatement stmt = con.prepareStatement(SQL_INSERT)) {
+				if (events.size() == 1) {
+					setParameters(stmt, events.get(0));
+					stmt.executeUpdate();
+				} else {
+					for (Event event: events) {
+						setParameters(stmt, event);
+						stmt.addBatch();
+					}
+					stmt.executeBatch();
+				}
+			}
 		} catch (SQLException e) {
-			throw new IOException("Exception while loggin stats", e);
+			throw new IOException(String.format("Exception while logging stats [events: %d]", events.size()), e);
 		}
 	}
+	
+	private void setParameters(PreparedStatement stmt, Event event) throws SQLException {
+		long timestamp = (event.timestamp > 0) ? event.timestamp : System.currentTimeMillis();
+		stmt.setTimestamp(1, new Timestamp(timestamp));
+		stmt.setString(2, event.user);
+		stmt.setString(3, event.type);
+		stmt.setString(4, event.data);
+	}
 }
@@ -0,0 +1,146 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import eu.openanalytics.containerproxy.ContainerProxyException;
+
+/**
+ * Helpers for working with CompletableFutures on Java 8.
+ */
+public class Futures {
+
+	@FunctionalInterface
+	public static interface ThrowingSupplier<T> {
+		public T get() throws Exception;
+	}
+	
+	@FunctionalInterface
+	public static interface ThrowingRunnable {
+		public void run() throws Exception;
+	}
+	
+	/**
+	 * Like {@link CompletableFuture#supplyAsync(java.util.function.Supplier, Executor)}, but the supplier may throw checked exceptions.
+	 */
+	public static <T> CompletableFuture<T> supplyAsync(ThrowingSupplier<T> supplier, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return supplier.get();
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+	
+	/**
+	 * Like {@link CompletableFuture#runAsync(Runnable, Executor)}, but the runnable may throw checked exceptions.
+	 */
+	public static CompletableFuture<Void> runAsync(ThrowingRunnable runnable, Executor executor) {
+		return supplyAsync(() -> {
+			runnable.run();
+			return null;
+		}, executor);
+	}
+	
+	/**
+	 * Call a method that returns a future, turning an exception thrown by the call itself into a failed future.
+	 */
+	public static <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> supplier) {
+		try {
+			CompletableFuture<T> future = supplier.get();
+			if (future == null) return failed(new IllegalStateException("No future returned"));
+			return future;
+		} catch (Throwable t) {
+			return failed(t);
+		}
+	}
+	
+	public static <T> CompletableFuture<T> failed(Throwable t) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		future.completeExceptionally(t);
+		return future;
+	}
+	
+	/**
+	 * @return The actual cause of a failed future, without any CompletionException or ExecutionException wrappers.
+	 */
+	public static Throwable unwrap(Throwable t) {
+		while ((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+			t = t.getCause();
+		}
+		return t;
+	}
+	
+	/**
+	 * Wait for a future to complete, as an adapter for blocking APIs.
+	 * 
+	 * @param future The future to wait for.
+	 * @return The result of the future.
+	 * @throws ContainerProxyException If the future failed, or was cancelled.
+	 */
+	public static <T> T await(CompletableFuture<T> future) throws ContainerProxyException {
+		try {
+			return future.join();
+		} catch (CompletionException | CancellationException e) {
+			throw toContainerProxyException(e);
+		}
+	}
+	
+	/**
+	 * Wait at most the given time for a future to complete, as an adapter for blocking APIs.
+	 * 
+	 * @param future The future to wait for.
+	 * @param timeout The maximum time to wait.
+	 * @param unit The unit of the timeout.
+	 * @return The result of the future.
+	 * @throws ContainerProxyException If the future failed, was cancelled, or did not complete in time.
+	 * In the latter case, the cause is a {@link TimeoutException}.
+	 */
+	public static <T> T await(CompletableFuture<T> future, long timeout, TimeUnit unit) throws ContainerProxyException {
+		try {
+			return future.get(timeout, unit);
+		} catch (TimeoutException e) {
+			throw new ContainerProxyException("Operation did not complete in time", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ContainerProxyException("Interrupted while waiting", e);
+		} catch (ExecutionException | CancellationException e) {
+			throw toContainerProxyException(e);
+		}
+	}
+	
+	private static ContainerProxyException toContainerProxyException(Exception e) {
+		Throwable cause = unwrap(e);
+		if (cause instanceof ContainerProxyException) return (ContainerProxyException) cause;
+		return new ContainerProxyException(cause.getMessage(), cause);
+	}
+}
@@ -29,6 +29,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -37,6 +38,8 @@ import javax.servlet.http.HttpServletResponse;
 import org.springframework.stereotype.Component;
 
 import eu.openanalytics.containerproxy.service.HeartbeatService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.PathHandler;
@@ -66,6 +69,16 @@ public class ProxyMappingManager {
 	@Inject
 	private HeartbeatService heartbeatService;
 	
+	@Inject
+	private MeterRegistry meterRegistry;
+	
+	private Counter routedRequestCounter;
+	
+	@PostConstruct
+	public void init() {
+		routedRequestCounter = meterRegistry.counter("proxy.routed.requests");
+	}
+	
 	public synchronized HttpHandler createHttpHandler(HttpHandler defaultHandler) {
 		if (pathHandler == null) {
 			pathHandler = new ProxyPathHandler(defaultHandler);
@@ -128,6 +141,7 @@ public class ProxyMappingManager {
 	public void dispatchAsync(String mapping, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
 		HttpServerExchange exchange = ServletRequestContext.current().getExchange();
 		exchange.putAttachment(ATTACHMENT_KEY_DISPATCHER, this);
+		routedRequestCounter.increment();
 		
 		String queryString = request.getQueryString();
 		queryString = (queryString == null) ? "" : "?" + queryString;
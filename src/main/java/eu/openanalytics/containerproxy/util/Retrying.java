@@ -20,10 +20,25 @@
  */
 package eu.openanalytics.containerproxy.util;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.IntPredicate;
 
 public class Retrying {
 
+	private static final double JITTER = 0.2;
+	
+	// Only used to time the attempts: the attempts themselves run on the executor of the caller.
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new RetryThreadFactory());
+
 	public static boolean retry(IntPredicate job, int tries, int waitTime) {
 		return retry(job, tries, waitTime, false);
 	}
@@ -48,4 +63,154 @@ public class Retrying {
 		else throw exception;
 		
 	}
+	
+	/**
+	 * Blocking variant of {@link #retryAsync(IntPredicate, long, long, long, boolean, Executor)}.
+	 * The attempts run on the calling thread. If it is interrupted while waiting, false is returned.
+	 */
+	public static boolean retry(IntPredicate job, long initialDelay, long maxDelay, long maxWait, boolean retryOnException) {
+		long deadline = System.currentTimeMillis() + maxWait;
+		long delay = Math.max(1, initialDelay);
+		maxDelay = Math.max(delay, maxDelay);
+		RuntimeException exception = null;
+		for (int currentTry = 1; ; currentTry++) {
+			try {
+				if (job.test(currentTry)) return true;
+				exception = null;
+			} catch (RuntimeException e) {
+				if (!retryOnException) throw e;
+				exception = e;
+			}
+			
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) break;
+			try {
+				Thread.sleep(Math.min(jitter(delay, maxDelay), remaining));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			delay = Math.min(delay * 2, maxDelay);
+		}
+		if (exception == null) return false;
+		else throw exception;
+	}
+	
+	/**
+	 * Run a job until it succeeds, without blocking the calling thread.
+	 * <p>
+	 * The first attempt runs immediately. After each failed attempt, the delay is doubled (starting at <b>initialDelay</b>,
+	 * up to <b>maxDelay</b>) and randomized by up to 20% (without exceeding <b>maxDelay</b>), so that jobs started together do not stay in lockstep.
+	 * A scheduler that is shared by all callers times the attempts, but the attempts themselves run on the given executor,
+	 * so that a slow job does not hold up the attempts of other callers.
+	 * </p>
+	 * 
+	 * @param job The job to run. It receives the number of the current attempt, starting at 1.
+	 * @param initialDelay The delay in ms after the first failed attempt.
+	 * @param maxDelay The maximum delay in ms between two attempts.
+	 * @param maxWait The time in ms after which no more attempts are made.
+	 * @param retryOnException True to treat an exception as a failed attempt. If the last attempt threw, the future completes with that exception.
+	 * @param executor The executor to run the attempts on.
+	 * @return A future that completes with true as soon as the job succeeds, or with false if it did not succeed within <b>maxWait</b>.
+	 * Cancelling the future prevents any further attempts.
+	 */
+	public static CompletableFuture<Boolean> retryAsync(IntPredicate job, long initialDelay, long maxDelay, long maxWait, boolean retryOnException, Executor executor) {
+		AsyncRetry retry = new AsyncRetry(job, initialDelay, maxDelay, System.currentTimeMillis() + maxWait, retryOnException, executor);
+		retry.submit();
+		return retry.result;
+	}
+	
+	private static long jitter(long delay, long maxDelay) {
+		double jitter = 1 + JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+		return Math.min((long) (delay * jitter), maxDelay);
+	}
+	
+	private static class AsyncRetry implements Runnable {
+		
+		private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+		
+		private final IntPredicate job;
+		private final Executor executor;
+		private final long maxDelay;
+		private final long deadline;
+		private final boolean retryOnException;
+		
+		private int currentTry = 0;
+		private long delay;
+		private RuntimeException exception;
+		private volatile ScheduledFuture<?> nextAttempt;
+		
+		public AsyncRetry(IntPredicate job, long initialDelay, long maxDelay, long deadline, boolean retryOnException, Executor executor) {
+			this.job = job;
+			this.executor = executor;
+			this.delay = Math.max(1, initialDelay);
+			this.maxDelay = Math.max(delay, maxDelay);
+			this.deadline = deadline;
+			this.retryOnException = retryOnException;
+			result.whenComplete((r, t) -> {
+				ScheduledFuture<?> f = nextAttempt;
+				if (t instanceof CancellationException && f != null) f.cancel(false);
+			});
+		}
+		
+		private void schedule(long delay) {
+			try {
+				nextAttempt = scheduler.schedule(this::submit, delay, TimeUnit.MILLISECONDS);
+			} catch (RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+		}
+		
+		private void submit() {
+			if (result.isDone()) return;
+			try {
+				executor.execute(this);
+			} catch (RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+		}
+		
+		@Override
+		public void run() {
+			if (result.isDone()) return;
+			try {
+				currentTry++;
+				if (job.test(currentTry)) {
+					result.complete(true);
+					return;
+				}
+				exception = null;
+			} catch (RuntimeException e) {
+				if (!retryOnException) {
+					result.completeExceptionally(e);
+					return;
+				}
+				exception = e;
+			}
+			
+			if (result.isDone()) return;
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				if (exception == null) result.complete(false);
+				else result.completeExceptionally(exception);
+				return;
+			}
+			
+			long jitteredDelay = jitter(delay, maxDelay);
+			delay = Math.min(delay * 2, maxDelay);
+			schedule(Math.min(jitteredDelay, remaining));
+		}
+	}
+	
+	private static class RetryThreadFactory implements ThreadFactory {
+		
+		private final AtomicInteger count = new AtomicInteger();
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Retrying-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
 }
@@ -0,0 +1,56 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.auth;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySourcesPropertyResolver;
+
+import eu.openanalytics.containerproxy.service.UserService;
+
+public class UserServiceTest {
+
+	@Test
+	public void refreshPicksUpReloadedAdminGroups() {
+		UserService userService = new UserService();
+		
+		userService.refresh(properties(Collections.singletonMap("proxy.admin-groups", "admins")));
+		assertArrayEquals(new String[] { "ADMINS" }, userService.getAdminGroups());
+		
+		Map<String, Object> reloaded = new HashMap<>();
+		reloaded.put("proxy.admin-groups[0]", "operators");
+		userService.refresh(properties(reloaded));
+		assertArrayEquals(new String[] { "OPERATORS" }, userService.getAdminGroups());
+	}
+	
+	private static PropertySourcesPropertyResolver properties(Map<String, Object> values) {
+		MutablePropertySources sources = new MutablePropertySources();
+		sources.addLast(new MapPropertySource("test", values));
+		return new PropertySourcesPropertyResolver(sources);
+	}
+}
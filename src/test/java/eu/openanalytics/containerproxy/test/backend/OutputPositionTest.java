@@ -0,0 +1,67 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.backend;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+
+import org.junit.Test;
+
+import eu.openanalytics.containerproxy.backend.OutputPosition;
+
+public class OutputPositionTest {
+
+	private static final Instant T1 = Instant.parse("2020-01-01T10:00:00.100Z");
+	private static final Instant T2 = Instant.parse("2020-01-01T10:00:00.200Z");
+	
+	@Test
+	public void linesWithSameTimestampAreForwarded() {
+		OutputPosition position = new OutputPosition();
+		position.startRead();
+		assertTrue(position.accept(T1));
+		assertTrue(position.accept(T1));
+		assertTrue(position.accept(T1));
+	}
+	
+	@Test
+	public void repeatedLinesAreSkipped() {
+		OutputPosition position = new OutputPosition();
+		position.startRead();
+		assertTrue(position.accept(T1));
+		assertTrue(position.accept(T2));
+		assertTrue(position.accept(T2));
+		
+		// The next read starts from the same second, and contains one new line with the last timestamp.
+		position.startRead();
+		assertFalse(position.accept(T1));
+		assertFalse(position.accept(T2));
+		assertFalse(position.accept(T2));
+		assertTrue(position.accept(T2));
+		
+		position.startRead();
+		assertFalse(position.accept(T1));
+		assertFalse(position.accept(T2));
+		assertFalse(position.accept(T2));
+		assertFalse(position.accept(T2));
+	}
+}
@@ -0,0 +1,56 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.log;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import eu.openanalytics.containerproxy.log.FileLogStorage;
+
+public class FileLogStorageTest {
+
+	@Test
+	public void tailAndRange() throws IOException {
+		Path log = Files.createTempFile("app_stdout", ".log");
+		Files.write(log, "line1\nline2\nline3\n".getBytes(StandardCharsets.UTF_8));
+		String path = log.toString();
+		FileLogStorage storage = new FileLogStorage();
+		
+		assertEquals(18, storage.getLogSize(path));
+		assertEquals("line2\nline3\n", read(storage, path, storage.findTailOffset(path, 2), 18));
+		assertEquals("line1\nline2\nline3\n", read(storage, path, storage.findTailOffset(path, 10), 18));
+		assertEquals("", read(storage, path, storage.findTailOffset(path, 0), 18));
+		assertEquals("ine2", read(storage, path, 7, 11));
+	}
+	
+	private static String read(FileLogStorage storage, String path, long start, long end) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		storage.writeLog(path, start, end - start, out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
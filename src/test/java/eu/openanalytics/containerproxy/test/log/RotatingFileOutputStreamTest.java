@@ -0,0 +1,73 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.log;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import eu.openanalytics.containerproxy.log.RotatingFileOutputStream;
+
+public class RotatingFileOutputStreamTest {
+
+	@Test
+	public void rotateBySize() throws IOException {
+		Path dir = Files.createTempDirectory("log-test");
+		Path live = dir.resolve("app_stdout.log");
+		List<Path> rotated = new ArrayList<>();
+		
+		try (RotatingFileOutputStream out = new RotatingFileOutputStream(live, 1024, 10, 0, (l, s) -> rotated.add(s))) {
+			out.write("0123456789".getBytes(StandardCharsets.UTF_8));
+			out.write("abcdefghij".getBytes(StandardCharsets.UTF_8));
+			out.write("xyz".getBytes(StandardCharsets.UTF_8));
+		}
+		
+		assertEquals(2, rotated.size());
+		assertEquals(dir.resolve("app_stdout.1.log"), rotated.get(0));
+		assertEquals(dir.resolve("app_stdout.2.log"), rotated.get(1));
+		assertEquals("0123456789", read(rotated.get(0)));
+		assertEquals("abcdefghij", read(rotated.get(1)));
+		assertEquals("xyz", read(live));
+	}
+	
+	@Test
+	public void bufferUntilFlush() throws IOException {
+		Path live = Files.createTempDirectory("log-test").resolve("app_stderr.log");
+		
+		try (RotatingFileOutputStream out = new RotatingFileOutputStream(live, 1024, 0, 0, null)) {
+			out.write("buffered".getBytes(StandardCharsets.UTF_8));
+			assertEquals("", read(live));
+			out.flush();
+			assertEquals("buffered", read(live));
+		}
+	}
+	
+	private static String read(Path path) throws IOException {
+		return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+import eu.openanalytics.containerproxy.log.S3LogOutputStream;
+
+public class S3LogOutputStreamTest {
+
+	@Test
+	public void flushSmallLog() throws IOException {
+		InMemoryS3 s3 = new InMemoryS3();
+		S3LogOutputStream out = new S3LogOutputStream(s3, "bucket", "logs/app_stdout.log", 16, 1024, Long.MAX_VALUE, false);
+		
+		out.write(bytes("hello"));
+		out.flush();
+		assertFalse(s3.objects.containsKey("logs/app_stdout.log"));
+		
+		out.flushIfDue();
+		assertEquals("hello", s3.getObject("logs/app_stdout.log"));
+		
+		out.write(bytes(" world"));
+		out.close();
+		assertEquals("hello world", s3.getObject("logs/app_stdout.log"));
+		assertEquals(0, s3.partsUploaded);
+	}
+	
+	@Test
+	public void uploadPartsAndRollover() throws IOException {
+		InMemoryS3 s3 = new InMemoryS3();
+		S3LogOutputStream out = new S3LogOutputStream(s3, "bucket", "logs/app_stdout.log", 4, 10, Long.MAX_VALUE, false);
+		
+		for (int i = 0; i < 13; i++) {
+			out.write(bytes(String.valueOf((char) ('a' + i))));
+		}
+		out.close();
+		
+		assertEquals("abcdefghij", s3.getObject("logs/app_stdout.log"));
+		assertEquals("klm", s3.getObject("logs/app_stdout.1.log"));
+		assertTrue(s3.uploads.isEmpty());
+		assertEquals(3, s3.partsUploaded);
+	}
+	
+	@Test
+	public void rolloverOnAge() throws IOException {
+		InMemoryS3 s3 = new InMemoryS3();
+		S3LogOutputStream out = new S3LogOutputStream(s3, "bucket", "app_stderr.log", 16, 1024, 0, false);
+		
+		out.write(bytes("first"));
+		out.flushIfDue();
+		out.write(bytes("second"));
+		out.close();
+		
+		assertEquals("first", s3.getObject("app_stderr.log"));
+		assertEquals("second", s3.getObject("app_stderr.1.log"));
+	}
+	
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * A minimal in-memory stand-in for S3, supporting regular and multipart uploads.
+	 */
+	private static class InMemoryS3 extends AbstractAmazonS3 {
+		
+		private Map<String, byte[]> objects = new HashMap<>();
+		private Map<String, TreeMap<Integer, byte[]>> uploads = new HashMap<>();
+		private int uploadCounter;
+		private int partsUploaded;
+		
+		public String getObject(String key) {
+			return new String(objects.get(key), StandardCharsets.UTF_8);
+		}
+		
+		@Override
+		public PutObjectResult putObject(PutObjectRequest request) {
+			objects.put(request.getKey(), read(request.getInputStream()));
+			return new PutObjectResult();
+		}
+		
+		@Override
+		public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+			String uploadId = "upload-" + (uploadCounter++);
+			uploads.put(uploadId, new TreeMap<>());
+			InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+			result.setBucketName(request.getBucketName());
+			result.setKey(request.getKey());
+			result.setUploadId(uploadId);
+			return result;
+		}
+		
+		@Override
+		public UploadPartResult uploadPart(UploadPartRequest request) {
+			uploads.get(request.getUploadId()).put(request.getPartNumber(), read(request.getInputStream()));
+			partsUploaded++;
+			UploadPartResult result = new UploadPartResult();
+			result.setPartNumber(request.getPartNumber());
+			result.setETag("etag-" + request.getPartNumber());
+			return result;
+		}
+		
+		@Override
+		public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+			TreeMap<Integer, byte[]> parts = uploads.remove(request.getUploadId());
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			for (PartETag tag: request.getPartETags()) {
+				byte[] part = parts.get(tag.getPartNumber());
+				content.write(part, 0, part.length);
+			}
+			objects.put(request.getKey(), content.toByteArray());
+			return new CompleteMultipartUploadResult();
+		}
+		
+		@Override
+		public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+			uploads.remove(request.getUploadId());
+		}
+		
+		private static byte[] read(InputStream in) {
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[1024];
+				int len = 0;
+				while ((len = in.read(buffer)) > 0) out.write(buffer, 0, len);
+				return out.toByteArray();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
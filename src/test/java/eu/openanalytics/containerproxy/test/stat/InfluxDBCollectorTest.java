@@ -0,0 +1,49 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.stat;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import eu.openanalytics.containerproxy.service.EventService.Event;
+import eu.openanalytics.containerproxy.stat.impl.InfluxDBCollector;
+
+public class InfluxDBCollectorTest {
+
+	@Test
+	public void formatSimpleEvent() {
+		Event event = new Event("Login", "jack", 1556813561098L, null);
+		assertEquals("event,username=jack,type=Login data=\"\" 1556813561098000000", InfluxDBCollector.toLineProtocol(event));
+	}
+	
+	@Test
+	public void escapeTagsAndFields() {
+		Event event = new Event("ProxyStart", "Doe, John=x", 1L, "spec \"01\"\\a");
+		assertEquals("event,username=Doe\\,\\ John\\=x,type=ProxyStart data=\"spec \\\"01\\\"\\\\a\" 1000000", InfluxDBCollector.toLineProtocol(event));
+	}
+	
+	@Test
+	public void omitEmptyTags() {
+		Event event = new Event("Logout", null, 0, "");
+		assertEquals("event,type=Logout data=\"\"", InfluxDBCollector.toLineProtocol(event));
+	}
+}
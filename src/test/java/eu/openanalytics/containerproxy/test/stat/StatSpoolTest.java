@@ -0,0 +1,161 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.stat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.env.Environment;
+
+import eu.openanalytics.containerproxy.service.EventService.Event;
+import eu.openanalytics.containerproxy.stat.IStatCollector;
+import eu.openanalytics.containerproxy.stat.StatSpool;
+
+public class StatSpoolTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+	
+	@Test
+	public void forwardAfterFailure() throws Exception {
+		RecordingCollector collector = new RecordingCollector(1);
+		StatSpool spool = new StatSpool(tmp.getRoot().toPath(), 1024, 64*1024, 10, collector, null);
+		spool.open();
+		for (int i = 0; i < 50; i++) {
+			spool.append(new Event("Login", "user" + i, i, null));
+		}
+		waitFor(collector, 50);
+		spool.close();
+		
+		assertEquals(50, collector.events.size());
+		for (int i = 0; i < 50; i++) {
+			assertEquals("user" + i, collector.events.get(i).user);
+		}
+	}
+	
+	@Test
+	public void resumeAfterRestart() throws Exception {
+		RecordingCollector failingCollector = new RecordingCollector(Integer.MAX_VALUE);
+		StatSpool spool = new StatSpool(tmp.getRoot().toPath(), 1024, 64*1024, 10, failingCollector, null);
+		spool.open();
+		for (int i = 0; i < 20; i++) {
+			spool.append(new Event("Logout", "user" + i, i, "data" + i));
+		}
+		spool.close();
+		
+		RecordingCollector collector = new RecordingCollector(0);
+		spool = new StatSpool(tmp.getRoot().toPath(), 1024, 64*1024, 10, collector, null);
+		spool.open();
+		waitFor(collector, 20);
+		spool.close();
+		
+		assertEquals(20, collector.events.size());
+		assertEquals("data19", collector.events.get(19).data);
+	}
+	
+	@Test
+	public void largeData() throws Exception {
+		StringBuilder data = new StringBuilder();
+		for (int i = 0; i < 100000; i++) data.append((char) ('a' + i % 26));
+		
+		RecordingCollector collector = new RecordingCollector(0);
+		StatSpool spool = new StatSpool(tmp.getRoot().toPath(), 256*1024, 1024*1024, 10, collector, null);
+		spool.open();
+		assertTrue(spool.append(new Event("ProxyStart", "user", 0, data.toString())));
+		waitFor(collector, 1);
+		spool.close();
+		
+		assertEquals(1, collector.events.size());
+		assertEquals(data.toString(), collector.events.get(0).data);
+	}
+	
+	@Test
+	public void skipCorruptSegment() throws Exception {
+		RecordingCollector failingCollector = new RecordingCollector(Integer.MAX_VALUE);
+		StatSpool spool = new StatSpool(tmp.getRoot().toPath(), 1024, 64*1024, 10, failingCollector, null);
+		spool.open();
+		for (int i = 0; i < 50; i++) {
+			spool.append(new Event("Login", "user" + i, i, null));
+		}
+		spool.close();
+		
+		// Corrupt the length of the first record of the first segment.
+		Path firstSegment;
+		try (Stream<Path> files = Files.list(tmp.getRoot().toPath())) {
+			firstSegment = files.filter(p -> p.getFileName().toString().startsWith("segment-")).sorted().findFirst().get();
+		}
+		try (FileChannel channel = FileChannel.open(firstSegment, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(4).putInt(0, Integer.MAX_VALUE), 0);
+		}
+		
+		RecordingCollector collector = new RecordingCollector(0);
+		spool = new StatSpool(tmp.getRoot().toPath(), 1024, 64*1024, 10, collector, null);
+		spool.open();
+		for (int i = 0; i < 100 && (collector.events.isEmpty() || !collector.events.get(collector.events.size() - 1).user.equals("user49")); i++) Thread.sleep(100);
+		spool.close();
+		
+		// The events of the corrupt segment are lost, but the events of the next segments are forwarded.
+		assertFalse(collector.events.isEmpty());
+		assertTrue(collector.events.size() < 50);
+		assertEquals("user49", collector.events.get(collector.events.size() - 1).user);
+	}
+	
+	private void waitFor(RecordingCollector collector, int count) throws InterruptedException {
+		for (int i = 0; i < 100 && collector.events.size() < count; i++) Thread.sleep(100);
+	}
+	
+	private static class RecordingCollector implements IStatCollector {
+		
+		private List<Event> events = new CopyOnWriteArrayList<>();
+		private AtomicInteger failuresLeft;
+		
+		public RecordingCollector(int failures) {
+			this.failuresLeft = new AtomicInteger(failures);
+		}
+		
+		@Override
+		public void accept(Event event, Environment env) throws IOException {
+			if (failuresLeft.getAndDecrement() > 0) throw new IOException("Target unavailable");
+			events.add(event);
+		}
+		
+		@Override
+		public void acceptAll(List<Event> batch, Environment env) throws IOException {
+			if (failuresLeft.getAndDecrement() > 0) throw new IOException("Target unavailable");
+			events.addAll(batch);
+		}
+	}
+}
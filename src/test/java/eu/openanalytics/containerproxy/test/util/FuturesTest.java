@@ -0,0 +1,64 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.util;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import eu.openanalytics.containerproxy.ContainerProxyException;
+import eu.openanalytics.containerproxy.util.Futures;
+
+public class FuturesTest {
+
+	@Test
+	public void callThrowing() throws Exception {
+		CompletableFuture<Boolean> future = Futures.call(() -> { throw new IllegalStateException(); });
+		assertTrue(future.isCompletedExceptionally());
+		try {
+			future.get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+	
+	@Test
+	public void awaitTimeout() {
+		try {
+			Futures.await(new CompletableFuture<Boolean>(), 100, TimeUnit.MILLISECONDS);
+			fail();
+		} catch (ContainerProxyException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+	}
+	
+	@Test(expected = ContainerProxyException.class)
+	public void awaitFailure() {
+		Futures.await(Futures.failed(new IllegalStateException()), 5, TimeUnit.SECONDS);
+	}
+}
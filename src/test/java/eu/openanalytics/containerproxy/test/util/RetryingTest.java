@@ -0,0 +1,76 @@
+/**
+ * ContainerProxy
+ *
+ * Copyright (C) 2016-2020 Open Analytics
+ *
+ * ===========================================================================
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the Apache License as published by
+ * The Apache Software Foundation, either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * Apache License for more details.
+ *
+ * You should have received a copy of the Apache License
+ * along with this program.  If not, see <http://www.apache.org/licenses/>
+ */
+package eu.openanalytics.containerproxy.test.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import eu.openanalytics.containerproxy.util.Retrying;
+
+public class RetryingTest {
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool();
+	
+	@Test
+	public void succeedsAfterRetries() throws Exception {
+		CompletableFuture<Boolean> result = Retrying.retryAsync(i -> i >= 3, 10, 50, 5000, false, executor);
+		assertTrue(result.get(5, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void failsAfterDeadline() throws Exception {
+		long start = System.currentTimeMillis();
+		CompletableFuture<Boolean> result = Retrying.retryAsync(i -> false, 10, 50, 300, false, executor);
+		assertFalse(result.get(5, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start >= 300);
+	}
+	
+	@Test(expected = ExecutionException.class)
+	public void exceptionWithoutRetry() throws Exception {
+		Retrying.retryAsync(i -> { throw new IllegalStateException(); }, 10, 50, 5000, false, executor).get(5, TimeUnit.SECONDS);
+	}
+	
+	@Test
+	public void cancelStopsAttempts() throws Exception {
+		AtomicInteger attempts = new AtomicInteger();
+		CompletableFuture<CompletableFuture<Boolean>> result = new CompletableFuture<>();
+		result.complete(Retrying.retryAsync(i -> {
+			attempts.incrementAndGet();
+			// Cancel from within the third attempt, so that no attempt can be in flight after cancelling.
+			if (i == 3) result.join().cancel(true);
+			return false;
+		}, 20, 20, 5000, false, executor));
+		
+		Thread.sleep(300);
+		assertTrue(result.join().isCancelled());
+		assertEquals(3, attempts.get());
+	}
+}